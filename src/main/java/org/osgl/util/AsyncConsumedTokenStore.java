@@ -0,0 +1,55 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A {@link ConsumedTokenStore} that is able to serve requests without
+ * blocking the calling thread, e.g. with a non-blocking client to a
+ * remote store.
+ *
+ * {@link Token#isValidAsync()}, {@link Token#consumeAsync()} and
+ * {@link Token#tryConsumeAsync()} call the store directly if it is an
+ * `AsyncConsumedTokenStore`, otherwise the blocking calls are run on
+ * a bounded executor.
+ */
+public interface AsyncConsumedTokenStore extends ConsumedTokenStore {
+
+    /**
+     * Asynchronous version of {@link #consumed(Token)}
+     * @param token the token
+     * @return the future of the consumed state
+     */
+    TokenFuture<Boolean> consumedAsync(Token token);
+
+    /**
+     * Asynchronous version of {@link #consume(Token)}
+     * @param token the token
+     * @return the future completed once the token is marked as consumed
+     */
+    TokenFuture<Void> consumeAsync(Token token);
+
+    /**
+     * Asynchronous version of {@link #tryConsume(Token)}
+     * @param token the token
+     * @return the future of whether the token is consumed by this call
+     */
+    TokenFuture<Boolean> tryConsumeAsync(Token token);
+}
@@ -0,0 +1,255 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link ConsumedTokenStore} that puts a local Bloom filter in front
+ * of another store, typically a remote cache.
+ *
+ * Almost every token validated has never been consumed. For such token
+ * the filter answers "definitely not consumed" and {@link #consumed(Token)}
+ * returns `false` without calling the backing store.
+ *
+ * The filter is populated by {@link #consume(Token)}, {@link #tryConsume(Token)}
+ * and by {@link #onConsumed(TokenFingerprint, long)}, which shall be called
+ * when the backing store notifies that a token has been consumed on another
+ * node. Without such notifications the filter is only safe for single node
+ * deployments.
+ *
+ * A token is added to the filter before it is written to the backing
+ * store, so a concurrent {@link #consumed(Token)} never misses a token
+ * the backing store already has. A token added but not written, e.g.
+ * when the write fails, only costs one extra lookup.
+ *
+ * Filters are partitioned by token due into windows of the horizon span,
+ * and a filter is dropped once its window has passed, so memory stays
+ * bounded. The horizon must not be shorter than the longest
+ * {@link Token.Life life} of the tokens checked against this store. A token
+ * that might have been issued before this store is created is always
+ * checked against the backing store, as the filter could not have seen
+ * it consumed.
+ */
+public class BloomFilterConsumedTokenStore implements BulkConsumedTokenStore {
+
+    private final ConsumedTokenStore store;
+    private final long horizonMillis;
+    private final int bits;
+    private final int hashes;
+    private final long since;
+    private final ConcurrentMap<Long, Filter> filters = new ConcurrentHashMap<Long, Filter>();
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    /**
+     * Construct a store with false positive rate of 1%
+     * @param store the backing store
+     * @param horizon the longest life of tokens
+     * @param expectedTokens the expected number of tokens consumed per horizon
+     */
+    public BloomFilterConsumedTokenStore(ConsumedTokenStore store, Token.Life horizon, int expectedTokens) {
+        this(store, horizon, expectedTokens, 0.01);
+    }
+
+    /**
+     * Construct a store
+     * @param store the backing store
+     * @param horizon the longest life of tokens
+     * @param expectedTokens the expected number of tokens consumed per horizon
+     * @param falsePositiveRate the false positive rate of each filter
+     */
+    public BloomFilterConsumedTokenStore(ConsumedTokenStore store, Token.Life horizon, int expectedTokens, double falsePositiveRate) {
+        E.illegalArgumentIf(horizon.seconds() <= 0, "horizon must not be forever");
+        E.illegalArgumentIf(expectedTokens < 1, "expected tokens shall be positive");
+        E.illegalArgumentIf(falsePositiveRate <= 0 || falsePositiveRate >= 1, "false positive rate shall be between 0 and 1");
+        this.store = $.requireNotNull(store);
+        this.horizonMillis = horizon.seconds() * 1000;
+        double ln2 = Math.log(2);
+        long m = (long) Math.ceil(-expectedTokens * Math.log(falsePositiveRate) / (ln2 * ln2));
+        this.bits = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, m));
+        this.hashes = Math.max(1, (int) Math.round((double) bits / expectedTokens * ln2));
+        this.since = System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean consumed(Token token) {
+        return mightBeConsumed(token) && store.consumed(token);
+    }
+
+    /**
+     * Check the tokens against the filters and look up the backing
+     * store only for the tokens that might have been consumed, with one
+     * bulk call if the backing store supports it
+     */
+    @Override
+    public boolean[] consumed(List<Token> tokens) {
+        int n = tokens.size();
+        boolean[] result = new boolean[n];
+        int[] pos = new int[n];
+        List<Token> candidates = new ArrayList<Token>();
+        for (int i = 0; i < n; ++i) {
+            Token token = tokens.get(i);
+            if (mightBeConsumed(token)) {
+                pos[candidates.size()] = i;
+                candidates.add(token);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            boolean[] ba = Token.consumed(store, candidates);
+            for (int i = 0; i < ba.length; ++i) {
+                result[pos[i]] = ba[i];
+            }
+        }
+        return result;
+    }
+
+    private boolean mightBeConsumed(Token token) {
+        long due = token.due();
+        if (due <= 0 || due - horizonMillis < since) {
+            return true;
+        }
+        Filter filter = filters.get(windowOf(due));
+        if (null == filter) return false;
+        TokenFingerprint fp = token.fingerprint();
+        return filter.mightContain(fp.hi(), fp.lo());
+    }
+
+    @Override
+    public void consume(Token token) {
+        onConsumed(token.fingerprint(), token.due());
+        store.consume(token);
+    }
+
+    /**
+     * Consume the tokens with one bulk call if the backing store supports it
+     */
+    @Override
+    public void consume(List<Token> tokens) {
+        for (Token token : tokens) {
+            onConsumed(token.fingerprint(), token.due());
+        }
+        Token.consume(store, tokens);
+    }
+
+    @Override
+    public boolean tryConsume(Token token) {
+        onConsumed(token.fingerprint(), token.due());
+        return store.tryConsume(token);
+    }
+
+    /**
+     * Record a token consumed through the backing store by another node
+     * @param fingerprint the token fingerprint
+     * @param due the token due
+     */
+    public void onConsumed(TokenFingerprint fingerprint, long due) {
+        if (due <= 0) {
+            // never due tokens always go to the backing store
+            return;
+        }
+        long now = System.currentTimeMillis();
+        sweep(now);
+        if (due <= now) {
+            return;
+        }
+        filter(windowOf(due)).put(fingerprint.hi(), fingerprint.lo());
+    }
+
+    private long windowOf(long due) {
+        return due / horizonMillis;
+    }
+
+    private Filter filter(long window) {
+        Filter filter = filters.get(window);
+        if (null == filter) {
+            Filter newFilter = new Filter(bits, hashes);
+            filter = filters.putIfAbsent(window, newFilter);
+            if (null == filter) {
+                filter = newFilter;
+            }
+        }
+        return filter;
+    }
+
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + Math.min(horizonMillis, 60 * 1000))) {
+            return;
+        }
+        long current = windowOf(now);
+        Iterator<Long> itr = filters.keySet().iterator();
+        while (itr.hasNext()) {
+            if (itr.next() < current) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * A lock free Bloom filter using double hashing on the fingerprint
+     */
+    private static class Filter {
+        private final AtomicLongArray words;
+        private final int bits;
+        private final int hashes;
+
+        Filter(int bits, int hashes) {
+            this.words = new AtomicLongArray((bits + 63) >>> 6);
+            this.bits = bits;
+            this.hashes = hashes;
+        }
+
+        void put(long hi, long lo) {
+            for (int i = 0; i < hashes; ++i) {
+                int bit = bit(hi, lo, i);
+                int w = bit >>> 6;
+                long mask = 1L << bit;
+                long word = words.get(w);
+                while ((word & mask) == 0 && !words.compareAndSet(w, word, word | mask)) {
+                    word = words.get(w);
+                }
+            }
+        }
+
+        boolean mightContain(long hi, long lo) {
+            for (int i = 0; i < hashes; ++i) {
+                int bit = bit(hi, lo, i);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int bit(long hi, long lo, int i) {
+            long h = hi + i * lo;
+            return (int) ((h & Long.MAX_VALUE) % bits);
+        }
+    }
+}
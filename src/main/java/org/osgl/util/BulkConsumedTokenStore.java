@@ -0,0 +1,48 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.List;
+
+/**
+ * A {@link ConsumedTokenStore} that is able to check or consume a batch
+ * of tokens in one call, e.g. with one multi-get or multi-set round trip
+ * to a remote store.
+ *
+ * Batch paths like {@link BulkTokenVerifier} and the flusher of
+ * {@link WriteBehindConsumedTokenStore} use it when available instead of
+ * calling {@link #consumed(Token)} or {@link #consume(Token)} per token.
+ */
+public interface BulkConsumedTokenStore extends ConsumedTokenStore {
+
+    /**
+     * Check if the tokens have been consumed
+     * @param tokens the tokens
+     * @return an array where element `i` is `true` if `tokens.get(i)` is consumed
+     */
+    boolean[] consumed(List<Token> tokens);
+
+    /**
+     * Mark the tokens as consumed
+     * @param tokens the tokens
+     */
+    void consume(List<Token> tokens);
+}
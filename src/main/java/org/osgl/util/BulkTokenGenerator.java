@@ -0,0 +1,204 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Generates large amount of tokens, e.g. one per recipient of a mail
+ * campaign, across a {@link ForkJoinPool}.
+ *
+ * Entries are read from the source in batches. While a batch is being
+ * generated by the pool workers the results of the previous batch are
+ * emitted, in input order, to the {@link Sink}. Thus the source is never
+ * fully loaded into memory.
+ *
+ * All tokens of one call share the same due, which is calculated once
+ * from the {@link Token.Life}. Each pool worker takes its own cipher
+ * instance from the {@link TokenCodec}, so workers never contend on the key.
+ *
+ * A generator is thread safe.
+ */
+public class BulkTokenGenerator {
+
+    /**
+     * The ID and payloads of a token to be generated
+     */
+    public static final class Entry {
+        private final String id;
+        private final String[] payload;
+
+        public Entry(String id, String... payload) {
+            this.id = $.requireNotNull(id);
+            this.payload = payload;
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public List<String> payload() {
+            return C.listOf(payload);
+        }
+    }
+
+    /**
+     * Receives generated tokens in input order
+     */
+    public interface Sink {
+        /**
+         * Accept a generated token
+         * @param entry the entry
+         * @param token the token string generated for the entry
+         */
+        void accept(Entry entry, String token);
+    }
+
+    /**
+     * Number of tokens a worker generates without further splitting
+     */
+    private static final int THRESHOLD = 64;
+
+    private final TokenCodec codec;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    /**
+     * Construct a generator with the codec, using the common pool
+     * sized to the number of cores and batch size of `4096`
+     * @param codec the token codec
+     */
+    public BulkTokenGenerator(TokenCodec codec) {
+        this(codec, CommonPool.INSTANCE, 4096);
+    }
+
+    /**
+     * Construct a generator
+     * @param codec the token codec
+     * @param pool the pool to generate tokens
+     * @param batchSize the number of entries read from the source per batch
+     */
+    public BulkTokenGenerator(TokenCodec codec, ForkJoinPool pool, int batchSize) {
+        E.illegalArgumentIf(batchSize < 1, "batch size shall be positive");
+        this.codec = $.requireNotNull(codec);
+        this.pool = $.requireNotNull(pool);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Generate tokens for all entries
+     * @param life the expiration of the tokens
+     * @param entries the entries
+     * @return the token strings in the same order of the entries
+     */
+    public List<String> generate(Token.Life life, Iterable<Entry> entries) {
+        final List<String> tokens = new ArrayList<String>();
+        generate(life, entries, new Sink() {
+            @Override
+            public void accept(Entry entry, String token) {
+                tokens.add(token);
+            }
+        });
+        return tokens;
+    }
+
+    /**
+     * Generate tokens for all entries and emit them to the sink in the
+     * same order of the entries. The sink is called on the calling thread.
+     *
+     * @param life the expiration of the tokens
+     * @param entries the entries
+     * @param sink the sink
+     */
+    public void generate(Token.Life life, Iterable<Entry> entries, Sink sink) {
+        long due = Token.Life.due(life.seconds());
+        Iterator<Entry> itr = entries.iterator();
+        Batch pending = null;
+        while (itr.hasNext()) {
+            Entry[] ea = new Entry[batchSize];
+            int n = 0;
+            while (n < batchSize && itr.hasNext()) {
+                ea[n++] = itr.next();
+            }
+            Batch batch = new Batch(due, ea, n);
+            pool.execute(batch);
+            if (null != pending) {
+                pending.emit(sink);
+            }
+            pending = batch;
+        }
+        if (null != pending) {
+            pending.emit(sink);
+        }
+    }
+
+    private class Batch extends RecursiveAction {
+        private final long due;
+        private final Entry[] entries;
+        private final String[] tokens;
+        private final int from;
+        private final int to;
+
+        Batch(long due, Entry[] entries, int size) {
+            this(due, entries, new String[size], 0, size);
+        }
+
+        private Batch(long due, Entry[] entries, String[] tokens, int from, int to) {
+            this.due = due;
+            this.entries = entries;
+            this.tokens = tokens;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; ++i) {
+                    Entry entry = entries[i];
+                    tokens[i] = codec.generate0(due, entry.id, entry.payload);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new Batch(due, entries, tokens, from, mid),
+                    new Batch(due, entries, tokens, mid, to));
+        }
+
+        void emit(Sink sink) {
+            join();
+            for (int i = 0, n = tokens.length; i < n; ++i) {
+                sink.accept(entries[i], tokens[i]);
+            }
+        }
+    }
+
+    static class CommonPool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+    }
+}
@@ -0,0 +1,346 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Verifies large amount of token strings, e.g. tokens read from access
+ * logs for audit, across a {@link ForkJoinPool}.
+ *
+ * Token strings are read from the source in batches. Each batch is
+ * parsed by the pool workers, each of which takes its own cipher instance
+ * from the {@link TokenCodec}, and then the tokens left to be checked are
+ * looked up in the {@link ConsumedTokenStore} with one call per batch if
+ * the store is a {@link BulkConsumedTokenStore}.
+ *
+ * {@link #verify(Iterator)} is pull based: at most one batch is verified
+ * ahead of the consumer, so a slow consumer slows down reading the source
+ * instead of piling up results in memory.
+ *
+ * A verifier is thread safe.
+ */
+public class BulkTokenVerifier {
+
+    /**
+     * The verification status of a token, which matches the
+     * {@link TokenResult.Reason} given by {@link TokenCodec#validate(String)}
+     */
+    public enum Status {
+        /**
+         * The token is valid
+         */
+        VALID,
+
+        /**
+         * The token is expired
+         */
+        EXPIRED,
+
+        /**
+         * The token is well formed but cannot be decrypted or authenticated
+         */
+        FORGED,
+
+        /**
+         * The token string or its plain text is not in any known format
+         */
+        MALFORMED,
+
+        /**
+         * The token is revoked, see {@link RevocationStore}
+         */
+        REVOKED,
+
+        /**
+         * The token is consumed
+         */
+        CONSUMED
+    }
+
+    /**
+     * The compact verification result of a token
+     */
+    public static final class Result {
+        private final Status status;
+        private final String id;
+        private final long due;
+
+        Result(Status status, String id, long due) {
+            this.status = status;
+            this.id = id;
+            this.due = due;
+        }
+
+        public Status status() {
+            return status;
+        }
+
+        public boolean isValid() {
+            return Status.VALID == status;
+        }
+
+        /**
+         * Returns the token ID. Note it is `null` for {@link Status#FORGED forged}
+         * and {@link Status#MALFORMED malformed} tokens and for expired tokens
+         * that are rejected before being authenticated
+         * @return the token ID
+         */
+        public String id() {
+            return id;
+        }
+
+        /**
+         * Returns the token due, see {@link Token#due()}
+         * @return the token due
+         */
+        public long due() {
+            return due;
+        }
+
+        @Override
+        public String toString() {
+            return S.fmt("{status: %s, id: %s, due: %s}", status, id, due);
+        }
+    }
+
+    /**
+     * Receives verification results in input order
+     */
+    public interface Sink {
+        /**
+         * Accept a verification result
+         * @param result the result
+         */
+        void accept(Result result);
+    }
+
+    private static final Result FORGED = new Result(Status.FORGED, null, 0);
+    private static final Result MALFORMED = new Result(Status.MALFORMED, null, 0);
+
+    /**
+     * Number of tokens a worker parses without further splitting
+     */
+    private static final int THRESHOLD = 64;
+
+    private final TokenCodec codec;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+
+    /**
+     * Construct a verifier with the codec, using the common pool sized
+     * to the number of cores and batch size of `1024`
+     * @param codec the token codec
+     */
+    public BulkTokenVerifier(TokenCodec codec) {
+        this(codec, BulkTokenGenerator.CommonPool.INSTANCE, 1024);
+    }
+
+    /**
+     * Construct a verifier
+     * @param codec the token codec
+     * @param pool the pool to verify tokens
+     * @param batchSize the number of tokens read from the source per batch,
+     *                  which is also the size of consumed store lookups
+     */
+    public BulkTokenVerifier(TokenCodec codec, ForkJoinPool pool, int batchSize) {
+        E.illegalArgumentIf(batchSize < 1, "batch size shall be positive");
+        this.codec = $.requireNotNull(codec);
+        this.pool = $.requireNotNull(pool);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Verify the token strings lazily. The source is read as the
+     * returned iterator is consumed.
+     *
+     * @param tokens the token strings
+     * @return the results in the same order of the token strings
+     */
+    public Iterator<Result> verify(final Iterator<? extends CharSequence> tokens) {
+        return new Iterator<Result>() {
+            private Batch current;
+            private int pos;
+            private Batch next = submit(tokens);
+
+            @Override
+            public boolean hasNext() {
+                if (null != current && pos < current.size) {
+                    return true;
+                }
+                if (null == next) {
+                    return false;
+                }
+                current = next;
+                current.join();
+                pos = 0;
+                next = submit(tokens);
+                return pos < current.size;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.results[pos++];
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Verify the token strings and emit results to the sink in the same
+     * order of the token strings. The sink is called on the calling thread.
+     *
+     * @param tokens the token strings
+     * @param sink the sink
+     */
+    public void verify(Iterator<? extends CharSequence> tokens, Sink sink) {
+        Iterator<Result> itr = verify(tokens);
+        while (itr.hasNext()) {
+            sink.accept(itr.next());
+        }
+    }
+
+    /**
+     * Verify the token strings
+     * @param tokens the token strings
+     * @return the results in the same order of the token strings
+     */
+    public List<Result> verify(Iterable<? extends CharSequence> tokens) {
+        List<Result> results = new ArrayList<Result>();
+        Iterator<Result> itr = verify(tokens.iterator());
+        while (itr.hasNext()) {
+            results.add(itr.next());
+        }
+        return results;
+    }
+
+    private Batch submit(Iterator<? extends CharSequence> tokens) {
+        if (!tokens.hasNext()) {
+            return null;
+        }
+        String[] sa = new String[batchSize];
+        int n = 0;
+        while (n < batchSize && tokens.hasNext()) {
+            CharSequence cs = tokens.next();
+            sa[n++] = null == cs ? null : cs.toString();
+        }
+        Batch batch = new Batch(sa, n);
+        pool.execute(batch);
+        return batch;
+    }
+
+    private class Batch extends RecursiveAction {
+        private final String[] tokens;
+        private final int size;
+        private final Token[] parsed;
+        private final Result[] results;
+
+        Batch(String[] tokens, int size) {
+            this.tokens = tokens;
+            this.size = size;
+            this.parsed = new Token[size];
+            this.results = new Result[size];
+        }
+
+        @Override
+        protected void compute() {
+            new Parse(this, 0, size).invoke();
+            List<Token> candidates = new ArrayList<Token>(size);
+            int[] pos = new int[size];
+            for (int i = 0; i < size; ++i) {
+                Token tk = parsed[i];
+                if (null != tk) {
+                    pos[candidates.size()] = i;
+                    candidates.add(tk);
+                }
+            }
+            if (candidates.isEmpty()) {
+                return;
+            }
+            boolean[] consumed = Token.consumed(candidates.get(0).store(), candidates);
+            for (int i = 0, n = candidates.size(); i < n; ++i) {
+                Token tk = candidates.get(i);
+                results[pos[i]] = new Result(consumed[i] ? Status.CONSUMED : Status.VALID, tk.id(), tk.due());
+            }
+        }
+
+        /*
+         * Parse the token at the index, set the result if the token
+         * is rejected or keep the token to be checked against the
+         * consumed token store
+         */
+        void parse(int i) {
+            TokenResult r = codec.result(tokens[i]);
+            TokenResult.Reason reason = r.reason();
+            Token tk = r.token();
+            if (TokenResult.Reason.EXPIRED == reason) {
+                results[i] = new Result(Status.EXPIRED, tk.id(), tk.due());
+            } else if (TokenResult.Reason.FORGED == reason) {
+                results[i] = FORGED;
+            } else if (!r.isOk()) {
+                results[i] = MALFORMED;
+            } else if (tk.revoked()) {
+                results[i] = new Result(Status.REVOKED, tk.id(), tk.due());
+            } else {
+                parsed[i] = tk;
+            }
+        }
+    }
+
+    private static class Parse extends RecursiveAction {
+        private final Batch batch;
+        private final int from;
+        private final int to;
+
+        Parse(Batch batch, int from, int to) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; ++i) {
+                    batch.parse(i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new Parse(batch, from, mid), new Parse(batch, mid, to));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+import org.osgl.cache.CacheService;
+import org.osgl.cache.CacheServiceProvider;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link ConsumedTokenStore} backed by a {@link CacheService}.
+ *
+ * Consumed tokens are keyed by the string form of their
+ * {@link Token#fingerprint() fingerprint}. Versions before 1.5.2 keyed
+ * them by `"auth-tk-consumed-" + id + due`. During the migration the
+ * old key can be checked as well, so tokens consumed before the upgrade
+ * cannot be reused. It costs one more lookup for every token not
+ * consumed, thus it is off by default and shall be turned off again
+ * once the longest token life has passed since the upgrade.
+ *
+ * As {@link CacheService} does not provide an atomic put-if-absent
+ * primitive, {@link #tryConsume(Token)} is made atomic with striped
+ * in-memory locks. Thus it is atomic within one JVM only. It takes one
+ * lookup and, if the token is not consumed yet, one put. The locks are
+ * {@link ReentrantLock}s which, unlike `synchronized` blocks, do not pin
+ * the carrier thread of a virtual thread.
+ */
+public class CacheConsumedTokenStore implements ConsumedTokenStore {
+
+    private static final int STRIPES = 64;
+
+    private final CacheService cache;
+    private final boolean checkLegacyKey;
+    private final Lock[] locks = new Lock[STRIPES];
+
+    /**
+     * Construct a store with the cache service
+     * @param cache the cache service to keep consumed tokens
+     */
+    public CacheConsumedTokenStore(CacheService cache) {
+        this(cache, false);
+    }
+
+    /**
+     * Construct a store with the cache service, optionally checking
+     * the consumed key of versions before 1.5.2 during the migration
+     * @param cache the cache service to keep consumed tokens
+     * @param checkLegacyKey whether to check the consumed key of versions before 1.5.2
+     */
+    public CacheConsumedTokenStore(CacheService cache, boolean checkLegacyKey) {
+        this.cache = $.requireNotNull(cache);
+        this.checkLegacyKey = checkLegacyKey;
+        for (int i = 0; i < STRIPES; ++i) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Construct a store with the cache service of the name specified
+     * @param cacheName the name of the cache service
+     */
+    public CacheConsumedTokenStore(String cacheName) {
+        this(CacheServiceProvider.Impl.Auto.get(cacheName));
+    }
+
+    @Override
+    public boolean consumed(Token token) {
+        return consumed(token, key(token));
+    }
+
+    @Override
+    public void consume(Token token) {
+        cache.put(key(token), "true", ttl(token));
+    }
+
+    @Override
+    public boolean tryConsume(Token token) {
+        String key = key(token);
+        Lock lock = locks[(key.hashCode() & 0x7FFFFFFF) % STRIPES];
+        lock.lock();
+        try {
+            if (consumed(token, key)) {
+                return false;
+            }
+            cache.put(key, "true", ttl(token));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the cache service of this store
+     * @return the cache service
+     */
+    public CacheService cache() {
+        return cache;
+    }
+
+    private boolean consumed(Token token, String key) {
+        return cache.get(key) != null
+                || (checkLegacyKey && cache.get(legacyKey(token)) != null);
+    }
+
+    private static String key(Token token) {
+        return token.fingerprint().toString();
+    }
+
+    private static String legacyKey(Token token) {
+        return "auth-tk-consumed-" + (token.id() + token.due());
+    }
+
+    /*
+     * Returns the seconds till the token is due, at least `1`, or `0` to
+     * let the cache apply its default ttl to a token that is never due
+     */
+    private static int ttl(Token token) {
+        long due = token.due();
+        if (due <= 0) {
+            return 0;
+        }
+        long seconds = (due + 1000 - System.currentTimeMillis()) / 1000;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, seconds));
+    }
+}
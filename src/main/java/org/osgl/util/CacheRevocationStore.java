@@ -0,0 +1,119 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+import org.osgl.cache.CacheService;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link RevocationStore} backed by a {@link CacheService}.
+ *
+ * A generation is the time in milliseconds the ID is revoked shifted
+ * left by a few bits, and it always moves forward from the current one
+ * and from the last generation written by the store, so revokes within
+ * the same millisecond still get distinct generations. Thus generations are monotonic even if an evicted generation reads as
+ * `0`: the next revoke still writes a generation above every generation
+ * stamped before it. Generations shall be kept for no shorter than the
+ * longest {@link Token.Life life} of tokens, otherwise revoked tokens
+ * become valid again once the generation is evicted.
+ *
+ * {@link CacheService} does not provide a compare-and-set primitive, so
+ * the generation is written with striped in-memory locks that make
+ * {@link #revoke(String)} atomic within one JVM. Two JVMs revoking the
+ * same ID at the same time might write the same generation, which is
+ * no earlier than the time of either revoke. Thus every token issued
+ * before either revoke is revoked.
+ */
+public class CacheRevocationStore implements RevocationStore {
+
+    private static final int STRIPES = 16;
+
+    /*
+     * The low bits of a generation left for revokes within the same
+     * millisecond
+     */
+    private static final int TIME_SHIFT = 10;
+
+    private final CacheService cache;
+    private final int ttl;
+    private final Lock[] locks = new Lock[STRIPES];
+    private final AtomicLong lastStamp = new AtomicLong();
+
+    /**
+     * Construct a store keeping generations for {@link Token.Life#LONG}
+     * @param cache the cache service
+     */
+    public CacheRevocationStore(CacheService cache) {
+        this(cache, Token.Life.LONG);
+    }
+
+    /**
+     * Construct a store
+     * @param cache the cache service
+     * @param horizon the longest life of tokens
+     */
+    public CacheRevocationStore(CacheService cache, Token.Life horizon) {
+        E.illegalArgumentIf(horizon.seconds() <= 0, "horizon must not be forever");
+        this.cache = $.requireNotNull(cache);
+        this.ttl = (int) Math.min(Integer.MAX_VALUE, horizon.seconds());
+        for (int i = 0; i < STRIPES; ++i) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @Override
+    public long generation(String id) {
+        Object o = cache.get(key(id));
+        return o instanceof Number ? ((Number) o).longValue() : 0;
+    }
+
+    @Override
+    public long revoke(String id) {
+        String key = key(id);
+        Lock lock = locks[(key.hashCode() & 0x7FFFFFFF) % STRIPES];
+        lock.lock();
+        try {
+            long generation = Math.max(nextStamp(), generation(id) + 1);
+            cache.put(key, generation, ttl);
+            return generation;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long nextStamp() {
+        while (true) {
+            long last = lastStamp.get();
+            long stamp = Math.max(System.currentTimeMillis() << TIME_SHIFT, last + 1);
+            if (lastStamp.compareAndSet(last, stamp)) {
+                return stamp;
+            }
+        }
+    }
+
+    private static String key(String id) {
+        return "auth-tk-gen-" + id;
+    }
+}
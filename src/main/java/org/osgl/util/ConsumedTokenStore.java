@@ -0,0 +1,63 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Keeps track of consumed {@link Token tokens}, so that a one time
+ * token cannot be used again once {@link Token#consume() consumed}.
+ *
+ * The default implementation is {@link CacheConsumedTokenStore} which
+ * is backed by a {@link org.osgl.cache.CacheService}. A store can be
+ * specified per codec via {@link TokenCodec.Builder#consumedTokenStore(ConsumedTokenStore)},
+ * so that consumed token state can be put into a store sized and tuned
+ * for it rather than the general application cache.
+ *
+ * Implementations must be thread safe.
+ */
+public interface ConsumedTokenStore {
+
+    /**
+     * Check if a token has been consumed
+     * @param token the token
+     * @return `true` if the token is consumed
+     */
+    boolean consumed(Token token);
+
+    /**
+     * Mark a token as consumed. The store is free to forget the token
+     * once it is {@link Token#expired() expired}.
+     * @param token the token
+     */
+    void consume(Token token);
+
+    /**
+     * Mark a token as consumed if it has not been consumed yet, as
+     * one atomic operation.
+     *
+     * When multiple callers try to consume the same token concurrently
+     * exactly one of them wins.
+     *
+     * @param token the token
+     * @return `true` if the token is consumed by this call, or `false`
+     *         if it has already been consumed
+     */
+    boolean tryConsume(Token token);
+}
@@ -0,0 +1,385 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock free, in process {@link ConsumedTokenStore} for single node
+ * deployments.
+ *
+ * Token {@link Token#fingerprint() fingerprints} are kept in primitive
+ * long open addressing tables, partitioned into buckets by the token
+ * {@link Token#due() due}. When the time of a bucket has passed all
+ * tokens in it are expired, and the whole bucket is dropped instead of
+ * expiring entries one by one.
+ *
+ * Inserts are CAS based so that many threads can consume tokens
+ * concurrently without locking. A bucket grows by chaining tables of
+ * doubled capacity.
+ */
+public class InMemoryConsumedTokenStore implements BulkConsumedTokenStore, AsyncConsumedTokenStore {
+
+    /**
+     * The default bucket span: one hour
+     */
+    public static final long DEFAULT_BUCKET_MILLIS = 60L * 60 * 1000;
+
+    /**
+     * The default initial capacity of each bucket
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    /*
+     * The bucket of never due tokens
+     */
+    private static final long FOREVER = Long.MAX_VALUE;
+
+    private final long bucketMillis;
+    private final int initialCapacity;
+    private final ConcurrentMap<Long, Bucket> buckets = new ConcurrentHashMap<Long, Bucket>();
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    /**
+     * Construct a store with hourly buckets and default capacity
+     */
+    public InMemoryConsumedTokenStore() {
+        this(DEFAULT_BUCKET_MILLIS, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct a store.
+     *
+     * @param bucketMillis the time span of each bucket in milliseconds
+     * @param initialCapacity the initial number of tokens each bucket
+     *                        could hold before it grows
+     */
+    public InMemoryConsumedTokenStore(long bucketMillis, int initialCapacity) {
+        E.illegalArgumentIf(bucketMillis < 1000, "bucket span shall be at least one second");
+        E.illegalArgumentIf(initialCapacity < 1, "initial capacity shall be positive");
+        this.bucketMillis = bucketMillis;
+        this.initialCapacity = initialCapacity;
+    }
+
+    @Override
+    public boolean consumed(Token token) {
+        TokenFingerprint fp = token.fingerprint();
+        return contains(bucketOf(token.due()), fp.hi(), fp.lo());
+    }
+
+    @Override
+    public TokenFuture<Boolean> consumedAsync(Token token) {
+        return TokenFuture.completed(consumed(token));
+    }
+
+    @Override
+    public TokenFuture<Void> consumeAsync(Token token) {
+        consume(token);
+        return TokenFuture.completed(null);
+    }
+
+    @Override
+    public TokenFuture<Boolean> tryConsumeAsync(Token token) {
+        return TokenFuture.completed(tryConsume(token));
+    }
+
+    @Override
+    public boolean[] consumed(List<Token> tokens) {
+        int n = tokens.size();
+        boolean[] result = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            result[i] = consumed(tokens.get(i));
+        }
+        return result;
+    }
+
+    @Override
+    public void consume(List<Token> tokens) {
+        for (Token token : tokens) {
+            tryConsume(token);
+        }
+    }
+
+    @Override
+    public void consume(Token token) {
+        tryConsume(token);
+    }
+
+    @Override
+    public boolean tryConsume(Token token) {
+        long due = token.due();
+        if (due > 0 && due <= TokenClock.ms()) {
+            // expired token never need to be kept
+            return false;
+        }
+        TokenFingerprint fp = token.fingerprint();
+        return add(bucketOf(due), fp.hi(), fp.lo());
+    }
+
+    /**
+     * Check if a fingerprint is kept in the bucket
+     * @param bucket the bucket index, see {@link #bucketOf(long)}
+     * @param hi the high 8 bytes of the fingerprint
+     * @param lo the low 8 bytes of the fingerprint
+     * @return `true` if the fingerprint is found
+     */
+    boolean contains(long bucket, long hi, long lo) {
+        Bucket b = buckets.get(bucket);
+        return null != b && b.contains(hi, lo);
+    }
+
+    /**
+     * Add a fingerprint into the bucket
+     * @param bucket the bucket index, see {@link #bucketOf(long)}
+     * @param hi the high 8 bytes of the fingerprint
+     * @param lo the low 8 bytes of the fingerprint
+     * @return `true` if the fingerprint is added by this call
+     */
+    boolean add(long bucket, long hi, long lo) {
+        sweep(System.currentTimeMillis());
+        return bucket(bucket).add(hi, lo);
+    }
+
+    /**
+     * Returns the approximate number of tokens kept in the store. A token
+     * consumed concurrently while a table get sealed might be counted twice
+     * @return the number of consumed tokens
+     */
+    public int size() {
+        int size = 0;
+        for (Bucket bucket : buckets.values()) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the index of the bucket keeping tokens of the due
+     * @param due the token due
+     * @return the bucket index
+     */
+    long bucketOf(long due) {
+        return due <= 0 ? FOREVER : due / bucketMillis;
+    }
+
+    /**
+     * Check if the bucket is a never due bucket
+     * @param bucket the bucket index
+     * @return `true` if tokens in the bucket never due
+     */
+    static boolean isForever(long bucket) {
+        return FOREVER == bucket;
+    }
+
+    /**
+     * Returns the time span of buckets in milliseconds
+     * @return the bucket span
+     */
+    long bucketMillis() {
+        return bucketMillis;
+    }
+
+    private Bucket bucket(long index) {
+        Bucket bucket = buckets.get(index);
+        if (null == bucket) {
+            Bucket newBucket = new Bucket(initialCapacity);
+            bucket = buckets.putIfAbsent(index, newBucket);
+            if (null == bucket) {
+                bucket = newBucket;
+            }
+        }
+        return bucket;
+    }
+
+    /*
+     * Drop buckets whose time has passed. At most one thread sweeps
+     * per bucket span
+     */
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + Math.min(bucketMillis, 60 * 1000))) {
+            return;
+        }
+        long current = now / bucketMillis;
+        Iterator<Long> itr = buckets.keySet().iterator();
+        while (itr.hasNext()) {
+            long index = itr.next();
+            if (index != FOREVER && index < current) {
+                itr.remove();
+            }
+        }
+    }
+
+    /**
+     * A chain of tables holding the fingerprints of one bucket.
+     */
+    private static class Bucket {
+        private final Table head;
+
+        Bucket(int capacity) {
+            head = new Table(capacity);
+        }
+
+        boolean contains(long hi, long lo) {
+            hi = nonZero(hi);
+            lo = nonZero(lo);
+            for (Table t = head; null != t; t = t.next.get()) {
+                if (t.find(hi, lo) == Table.FOUND) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /*
+         * Returns `true` if the fingerprint is added by this call.
+         *
+         * A table is sealed once it reaches its load threshold. An insert
+         * only counts when the table was not sealed after the slot has
+         * been claimed. Otherwise the insert carries on to the next table,
+         * where concurrent inserts of the same fingerprint that skipped
+         * the sealed table are arbitrated by CAS.
+         */
+        boolean add(long hi, long lo) {
+            hi = nonZero(hi);
+            lo = nonZero(lo);
+            Table t = head;
+            while (true) {
+                int result = t.insert(hi, lo);
+                if (result == Table.FOUND) {
+                    return false;
+                } else if (result == Table.CLAIMED && !t.sealed) {
+                    return true;
+                }
+                t = t.next();
+            }
+        }
+
+        int size() {
+            int size = 0;
+            for (Table t = head; null != t; t = t.next.get()) {
+                size += t.count.get();
+            }
+            return size;
+        }
+
+        /*
+         * `0` marks empty slot
+         */
+        private static long nonZero(long v) {
+            return 0 == v ? 1 : v;
+        }
+    }
+
+    /**
+     * An open addressing table with linear probing. Each slot has two
+     * longs: the slot is claimed by CAS on the high long and published
+     * by setting the low long.
+     */
+    private static class Table {
+        static final int FOUND = 0;
+        static final int CLAIMED = 1;
+        static final int SKIPPED = 2;
+
+        final AtomicLongArray slots;
+        final int mask;
+        final int threshold;
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicReference<Table> next = new AtomicReference<Table>();
+        volatile boolean sealed;
+
+        Table(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+            slots = new AtomicLongArray(size << 1);
+            mask = size - 1;
+            threshold = size >> 1;
+        }
+
+        Table next() {
+            Table t = next.get();
+            if (null == t) {
+                Table newTable = new Table((mask + 1) << 1);
+                t = next.compareAndSet(null, newTable) ? newTable : next.get();
+            }
+            return t;
+        }
+
+        int find(long hi, long lo) {
+            for (int i = (int) lo & mask, n = 0; n <= mask; i = (i + 1) & mask, ++n) {
+                long h = slots.get(i << 1);
+                if (0 == h) {
+                    return SKIPPED;
+                }
+                if (h == hi && published(i) == lo) {
+                    return FOUND;
+                }
+            }
+            return SKIPPED;
+        }
+
+        int insert(long hi, long lo) {
+            // read the seal before probing, see Bucket.add
+            boolean wasSealed = sealed;
+            for (int i = (int) lo & mask, n = 0; n <= mask; i = (i + 1) & mask, ++n) {
+                int pos = i << 1;
+                long h = slots.get(pos);
+                if (0 == h) {
+                    if (wasSealed) {
+                        return SKIPPED;
+                    }
+                    if (slots.compareAndSet(pos, 0, hi)) {
+                        slots.set(pos + 1, lo);
+                        if (count.incrementAndGet() >= threshold) {
+                            sealed = true;
+                        }
+                        return CLAIMED;
+                    }
+                    h = slots.get(pos);
+                }
+                if (h == hi && published(i) == lo) {
+                    return FOUND;
+                }
+            }
+            sealed = true;
+            return SKIPPED;
+        }
+
+        /*
+         * Wait for the low long of a claimed slot to be published
+         */
+        private long published(int i) {
+            int pos = (i << 1) + 1;
+            long lo = slots.get(pos);
+            while (0 == lo) {
+                Thread.yield();
+                lo = slots.get(pos);
+            }
+            return lo;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A file backed {@link ConsumedTokenStore} that keeps one time tokens
+ * consumed across restarts without a network cache.
+ *
+ * Token {@link Token#fingerprint() fingerprints} are appended to memory
+ * mapped journal segments, one set of segments per due time window. An
+ * append is a 16 bytes memory write, and the operating system writes
+ * the pages back to disk. Call {@link #flush()} to force the pages to
+ * disk, e.g. on shutdown. Fingerprints appended since the last flush can
+ * be lost if the operating system crashes, but not if the JVM crashes.
+ *
+ * Lookups go to an {@link InMemoryConsumedTokenStore} index, which is
+ * rebuilt from the segments on startup. Once the window of a segment has
+ * passed, every token in it is expired and the segment file is deleted.
+ *
+ * Each segment starts with a header carrying the window span. A journal
+ * must be reopened with the window span it was written with, otherwise
+ * the constructor fails rather than forgetting consumed tokens.
+ *
+ * {@link #close()} flushes the segments and drops them, and the
+ * mappings are released once the segments are garbage collected. A
+ * closed store cannot be used any more.
+ */
+public class JournalConsumedTokenStore implements BulkConsumedTokenStore, Closeable {
+
+    /**
+     * The default number of fingerprints in one segment file: 64k, i.e.
+     * 1MB per segment file
+     */
+    public static final int DEFAULT_SEGMENT_CAPACITY = 64 * 1024;
+
+    private static final int ENTRY_LEN = 16;
+    // magic and window span, as long as one entry
+    private static final int HEADER_LEN = ENTRY_LEN;
+    private static final long MAGIC = 0x6F73676C746B6A31L;
+    private static final String SUFFIX = ".tkj";
+    private static final String FOREVER = "forever";
+
+    private final File dir;
+    private final int segmentCapacity;
+    private final InMemoryConsumedTokenStore index;
+    private final ConcurrentMap<Long, Window> windows = new ConcurrentHashMap<Long, Window>();
+    private final AtomicLong nextSweep = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Construct a store with hourly windows and default segment capacity
+     * @param dir the directory of journal segments
+     */
+    public JournalConsumedTokenStore(File dir) {
+        this(dir, InMemoryConsumedTokenStore.DEFAULT_BUCKET_MILLIS, DEFAULT_SEGMENT_CAPACITY);
+    }
+
+    /**
+     * Construct a store and rebuild the index from existing segments
+     * @param dir the directory of journal segments
+     * @param windowMillis the time span of each window in milliseconds
+     * @param segmentCapacity the number of fingerprints in one segment file
+     * @throws IllegalArgumentException if the existing segments were
+     *      written with another window span
+     */
+    public JournalConsumedTokenStore(File dir, long windowMillis, int segmentCapacity) {
+        E.illegalArgumentIf(segmentCapacity < 1, "segment capacity shall be positive");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw E.unexpected("Cannot create journal dir: %s", dir);
+        }
+        E.illegalArgumentIf(!dir.isDirectory(), "not a directory: %s", dir);
+        this.dir = dir;
+        this.segmentCapacity = segmentCapacity;
+        this.index = new InMemoryConsumedTokenStore(windowMillis, segmentCapacity);
+        load();
+    }
+
+    @Override
+    public boolean consumed(Token token) {
+        ensureOpen();
+        return index.consumed(token);
+    }
+
+    @Override
+    public boolean[] consumed(List<Token> tokens) {
+        ensureOpen();
+        return index.consumed(tokens);
+    }
+
+    @Override
+    public void consume(List<Token> tokens) {
+        for (Token token : tokens) {
+            tryConsume(token);
+        }
+    }
+
+    @Override
+    public void consume(Token token) {
+        tryConsume(token);
+    }
+
+    @Override
+    public boolean tryConsume(Token token) {
+        ensureOpen();
+        long now = System.currentTimeMillis();
+        sweep(now);
+        long due = token.due();
+        if (due > 0 && due <= now) {
+            return false;
+        }
+        long window = index.bucketOf(due);
+        TokenFingerprint fp = token.fingerprint();
+        long hi = nonZero(fp.hi()), lo = nonZero(fp.lo());
+        if (!index.add(window, hi, lo)) {
+            return false;
+        }
+        window(window).append(hi, lo);
+        return true;
+    }
+
+    /**
+     * Force journal segments to be written to disk
+     */
+    public void flush() {
+        for (Window window : windows.values()) {
+            window.flush();
+        }
+    }
+
+    /**
+     * Flush and drop the journal segments
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+        windows.clear();
+    }
+
+    private void ensureOpen() {
+        E.illegalStateIf(closed, "journal closed");
+    }
+
+    private Window window(long index) {
+        Window window = windows.get(index);
+        if (null == window) {
+            Window newWindow = new Window(index);
+            window = windows.putIfAbsent(index, newWindow);
+            if (null == window) {
+                window = newWindow;
+            }
+        }
+        return window;
+    }
+
+    private void load() {
+        File[] files = dir.listFiles();
+        if (null == files) return;
+        long current = index.bucketOf(System.currentTimeMillis());
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SUFFIX)) continue;
+            String[] parts = name.substring(0, name.length() - SUFFIX.length()).split("\\.");
+            if (parts.length != 2) continue;
+            long window;
+            int seq;
+            try {
+                window = FOREVER.equals(parts[0]) ? index.bucketOf(-1) : Long.parseLong(parts[0]);
+                seq = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            Segment.checkHeader(file, index.bucketMillis());
+            if (window < current) {
+                delete(file);
+                continue;
+            }
+            Segment segment = new Segment(file, segmentCapacity, index.bucketMillis());
+            MappedByteBuffer buf = segment.buf;
+            // a slot is claimed before it is written, thus a JVM crash
+            // can leave holes, scan the whole segment and skip them
+            int next = 0;
+            for (int i = 0; i < segment.capacity; ++i) {
+                int pos = HEADER_LEN + i * ENTRY_LEN;
+                long hi = buf.getLong(pos);
+                long lo = buf.getLong(pos + 8);
+                if (0 == hi || 0 == lo) continue;
+                index.add(window, hi, lo);
+                next = i + 1;
+            }
+            segment.next.set(next);
+            window(window).load(seq, segment);
+        }
+    }
+
+    private void sweep(long now) {
+        long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + Math.min(index.bucketMillis(), 60 * 1000))) {
+            return;
+        }
+        long current = index.bucketOf(now);
+        Iterator<Map.Entry<Long, Window>> itr = windows.entrySet().iterator();
+        while (itr.hasNext()) {
+            Map.Entry<Long, Window> entry = itr.next();
+            if (entry.getKey() < current) {
+                itr.remove();
+                entry.getValue().delete();
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /*
+     * `0` marks empty entry in segment files
+     */
+    private static long nonZero(long v) {
+        return 0 == v ? 1 : v;
+    }
+
+    /**
+     * The segments of one window. Appends go to the latest segment, a new
+     * segment is created when it is full.
+     */
+    private class Window {
+        private final long index;
+        private final Lock lock = new ReentrantLock();
+        private final List<Segment> segments = new ArrayList<Segment>();
+        private volatile Segment current;
+        private int nextSeq;
+
+        Window(long index) {
+            this.index = index;
+        }
+
+        void append(long hi, long lo) {
+            while (true) {
+                Segment segment = current;
+                if (null != segment && segment.append(hi, lo)) {
+                    return;
+                }
+                lock.lock();
+                try {
+                    if (current == segment) {
+                        Segment newSegment = new Segment(new File(dir, name(nextSeq++)), segmentCapacity,
+                                JournalConsumedTokenStore.this.index.bucketMillis());
+                        segments.add(newSegment);
+                        current = newSegment;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        void load(int seq, Segment segment) {
+            lock.lock();
+            try {
+                segments.add(segment);
+                if (seq >= nextSeq) {
+                    nextSeq = seq + 1;
+                    current = segment;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flush() {
+            lock.lock();
+            try {
+                for (Segment segment : segments) {
+                    segment.buf.force();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void delete() {
+            lock.lock();
+            try {
+                for (Segment segment : segments) {
+                    JournalConsumedTokenStore.delete(segment.file);
+                }
+                segments.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private String name(int seq) {
+            String prefix = InMemoryConsumedTokenStore.isForever(index) ? FOREVER : String.valueOf(index);
+            return prefix + "." + seq + SUFFIX;
+        }
+    }
+
+    /**
+     * A memory mapped segment file. Entries are claimed by incrementing
+     * an atomic counter, thus concurrent appends write disjoint regions.
+     *
+     * The header is the magic number followed by the window span. It is
+     * written when the file is created, before any entry.
+     */
+    private static class Segment {
+        private final File file;
+        private final int capacity;
+        private final MappedByteBuffer buf;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Segment(File file, int capacity, long windowMillis) {
+            this.file = file;
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    // a segment written with a larger capacity is kept whole
+                    long length = raf.length();
+                    capacity = (int) Math.max(capacity, (length - HEADER_LEN) / ENTRY_LEN);
+                    long size = HEADER_LEN + (long) capacity * ENTRY_LEN;
+                    if (length < size) {
+                        raf.setLength(size);
+                    }
+                    buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw E.ioException(e);
+            }
+            this.capacity = capacity;
+            if (0 == buf.getLong(0)) {
+                buf.putLong(8, windowMillis);
+                buf.putLong(0, MAGIC);
+            }
+        }
+
+        /*
+         * Check the header of an existing segment file before it is
+         * indexed or swept by its window
+         */
+        static void checkHeader(File file, long windowMillis) {
+            long magic, span;
+            try {
+                RandomAccessFile raf = new RandomAccessFile(file, "r");
+                try {
+                    if (raf.length() < HEADER_LEN) {
+                        return;
+                    }
+                    magic = raf.readLong();
+                    span = raf.readLong();
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                throw E.ioException(e);
+            }
+            if (0 == magic) {
+                // created but the header is not written yet
+                return;
+            }
+            E.illegalArgumentIf(MAGIC != magic, "not a token journal segment: %s", file);
+            E.illegalArgumentIf(span != windowMillis,
+                    "journal segment %s was written with windows of %s ms, not %s ms", file, span, windowMillis);
+        }
+
+        boolean append(long hi, long lo) {
+            int slot = next.getAndIncrement();
+            if (slot >= capacity) {
+                return false;
+            }
+            int pos = HEADER_LEN + slot * ENTRY_LEN;
+            // the low long goes first, a non zero high long marks a complete entry
+            buf.putLong(pos + 8, lo);
+            buf.putLong(pos, hi);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Prepared keys for the static token methods of {@link Token}, which
+ * take the secret on every call.
+ *
+ * The {@link TokenKey} and a {@link RejectedTokenFilter} are kept per
+ * secret, so decrypting a legacy token costs only the cipher work, and
+ * a replayed garbage token is rejected with a hash lookup. Failures are
+ * signalled with `null` instead of exceptions.
+ *
+ * The prepared keys implement the built-in AES scheme of {@link Crypto}.
+ * When the application has set up another {@link CryptoService} the
+ * tokens are decrypted by {@link Crypto} instead, as they always were.
+ */
+final class LegacyTokenKeys {
+
+    /*
+     * Applications normally use one or two secrets. The map is cleared
+     * when the limit is reached to bound the memory
+     */
+    private static final int MAX_SECRETS = 16;
+
+    private static final int REJECTED_CAPACITY = 4096;
+
+    private static final ConcurrentMap<String, Entry> ENTRIES = new ConcurrentHashMap<String, Entry>();
+
+    /*
+     * The field of Crypto holding the service set by the application,
+     * `null` if it cannot be accessed
+     */
+    private static final Field CRYPTO_SERVICE = cryptoServiceField();
+
+    private LegacyTokenKeys() {
+    }
+
+    /**
+     * Decrypt a legacy encrypted token
+     * @param secret the secret
+     * @param token the token string
+     * @return the plain text in UTF-8 or `null` if the token cannot be decrypted
+     */
+    static byte[] plainText(byte[] secret, String token) {
+        Entry entry = entry(secret);
+        if (null != entry.rejected.get(token)) {
+            return null;
+        }
+        byte[] plainText;
+        if (customCryptoService()) {
+            plainText = cryptoPlainText(secret, token);
+        } else {
+            byte[] cipherText = Entry.cipherText(token);
+            if (null == cipherText) {
+                entry.rejected.add(token, TokenResult.MALFORMED);
+                return null;
+            }
+            plainText = entry.plainText(cipherText);
+        }
+        if (null == plainText) {
+            entry.rejected.add(token, TokenResult.FORGED);
+        }
+        return plainText;
+    }
+
+    /**
+     * Parse a legacy encrypted token
+     * @param secret the secret
+     * @param token the token string
+     * @return the parse result
+     */
+    static TokenResult parse(byte[] secret, String token) {
+        Entry entry = entry(secret);
+        TokenResult rejected = entry.rejected.get(token);
+        if (null != rejected) {
+            return rejected;
+        }
+        byte[] plainText;
+        if (customCryptoService()) {
+            plainText = cryptoPlainText(secret, token);
+        } else {
+            byte[] cipherText = Entry.cipherText(token);
+            if (null == cipherText) {
+                entry.rejected.add(token, TokenResult.MALFORMED);
+                return TokenResult.MALFORMED;
+            }
+            plainText = entry.plainText(cipherText);
+        }
+        if (null == plainText) {
+            entry.rejected.add(token, TokenResult.FORGED);
+            return TokenResult.FORGED;
+        }
+        return Token.plainTextResult(new String(plainText, Charsets.UTF_8));
+    }
+
+    /*
+     * Returns `true` if the application has set up a CryptoService or
+     * if that cannot be told. The field is read on every call, so
+     * a service set after tokens have been parsed is still honoured
+     */
+    private static boolean customCryptoService() {
+        if (null == CRYPTO_SERVICE) {
+            return true;
+        }
+        try {
+            return null != CRYPTO_SERVICE.get(null);
+        } catch (IllegalAccessException e) {
+            return true;
+        }
+    }
+
+    private static Field cryptoServiceField() {
+        try {
+            Field field = Crypto.class.getDeclaredField("svc");
+            if (!CryptoService.class.equals(field.getType()) || !Modifier.isStatic(field.getModifiers())) {
+                return null;
+            }
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /*
+     * Decrypt with Crypto, which hands over to the CryptoService
+     */
+    private static byte[] cryptoPlainText(byte[] secret, String token) {
+        try {
+            String plainText = Crypto.decryptAES(token, secret);
+            return null == plainText ? null : plainText.getBytes(Charsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Entry entry(byte[] secret) {
+        // one char per byte
+        char[] ca = new char[secret.length];
+        for (int i = 0; i < ca.length; ++i) {
+            ca[i] = (char) (secret[i] & 0xFF);
+        }
+        String id = new String(ca);
+        Entry entry = ENTRIES.get(id);
+        if (null == entry) {
+            if (ENTRIES.size() >= MAX_SECRETS) {
+                ENTRIES.clear();
+            }
+            Entry newEntry = new Entry(secret);
+            entry = ENTRIES.putIfAbsent(id, newEntry);
+            if (null == entry) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        // null if 256 bits AES is not available
+        final TokenKey key;
+        final RejectedTokenFilter rejected = new RejectedTokenFilter(REJECTED_CAPACITY);
+
+        Entry(byte[] secret) {
+            TokenKey key = secret.length == 0 ? null : new TokenKey(secret);
+            this.key = null != key && key.legacyCapable() ? key : null;
+        }
+
+        /*
+         * Returns the cipher text or `null` if the token is not a well
+         * formed AES cipher text, i.e. full blocks followed by the IV in hex
+         */
+        static byte[] cipherText(String token) {
+            byte[] cipherText = TokenEncoding.hexToBytes(token);
+            return TokenKey.isLegacyCipherText(cipherText) ? cipherText : null;
+        }
+
+        /*
+         * Decrypt with the prepared key. Crypto would fail the same way
+         * on a token the key cannot decrypt, thus it is not tried again
+         */
+        byte[] plainText(byte[] cipherText) {
+            return null == key ? null : key.decrypt(cipherText);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of recently parsed tokens, so that a token presented
+ * several times in a short period, e.g. by link scanners and double
+ * clicks, is decrypted only once.
+ *
+ * Entries are kept in LRU order in lock striped segments selected by
+ * the hash of the token string. An entry lives for at most `ttl`
+ * milliseconds and never beyond the token due. Rejected tokens are
+ * cached as well, so repeated garbage tokens are rejected from memory.
+ */
+final class ParsedTokenCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final long ttl;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    ParsedTokenCache(int capacity, long ttl) {
+        this.ttl = ttl;
+        int segmentCapacity = Math.max(1, (capacity + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; ++i) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * Returns the cached result of the token string or `null` if not found
+     * @param token the token string
+     * @return the result parsed before or `null`
+     */
+    TokenResult get(String token) {
+        return segmentOf(token).get(token, TokenClock.ms());
+    }
+
+    void put(String token, TokenResult parsed) {
+        long now = TokenClock.ms();
+        long expires = now + ttl;
+        long due = null == parsed.token() ? 0 : parsed.token().due();
+        if (due > now && due < expires) {
+            expires = due;
+        }
+        segmentOf(token).put(token, new Cached(parsed, expires));
+    }
+
+    private Segment segmentOf(String token) {
+        int h = token.hashCode();
+        return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    }
+
+    private static class Cached {
+        final TokenResult result;
+        final long expires;
+
+        Cached(TokenResult result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    private static class Segment {
+        private final Lock lock = new ReentrantLock();
+        private final Map<String, Cached> entries;
+
+        Segment(final int capacity) {
+            this.entries = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        TokenResult get(String token, long now) {
+            lock.lock();
+            try {
+                Cached entry = entries.get(token);
+                if (null == entry) return null;
+                if (entry.expires <= now) {
+                    entries.remove(token);
+                    return null;
+                }
+                return entry.result;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String token, Cached entry) {
+            lock.lock();
+            try {
+                entries.put(token, entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A compact, bounded, lock free set of recently rejected token strings,
+ * so that a replayed garbage token is rejected with a hash lookup instead
+ * of another decryption.
+ *
+ * Each token string is reduced to a seeded 64 bit hash kept in a direct
+ * mapped slot table: a new entry simply overwrites the slot of an older
+ * one. The lowest bit of the hash is replaced with the rejection reason.
+ * The seed is random per instance, so hash collisions cannot be crafted
+ * from outside.
+ *
+ * Only rejections that never change are recorded, i.e. tokens that are
+ * {@link TokenResult.Reason#FORGED forged} or
+ * {@link TokenResult.Reason#MALFORMED malformed}.
+ */
+final class RejectedTokenFilter {
+
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final long seed;
+
+    /**
+     * @param capacity the number of slots, rounded up to power of two
+     */
+    RejectedTokenFilter(int capacity) {
+        E.illegalArgumentIf(capacity < 1, "capacity shall be positive");
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.seed = new SecureRandom().nextLong();
+    }
+
+    /**
+     * Returns the rejection result of the token or `null` if not found
+     * @param token the token string
+     * @return {@link TokenResult#FORGED}, {@link TokenResult#MALFORMED} or `null`
+     */
+    TokenResult get(String token) {
+        long h = hash(token);
+        long v = slots.get(index(h));
+        if ((v & ~1L) != h) return null;
+        return (v & 1L) == 0 ? TokenResult.FORGED : TokenResult.MALFORMED;
+    }
+
+    boolean contains(String token) {
+        return null != get(token);
+    }
+
+    /**
+     * Record a rejected token
+     * @param token the token string
+     * @param result the rejection, must be {@link TokenResult#isPermanent() permanent}
+     */
+    void add(String token, TokenResult result) {
+        long h = hash(token);
+        slots.set(index(h), TokenResult.Reason.MALFORMED == result.reason() ? h | 1L : h);
+    }
+
+    private int index(long h) {
+        // the lowest bit is taken by the reason
+        return (int) (h >>> 1) & mask;
+    }
+
+    private long hash(String s) {
+        // FNV-1a over the chars followed by the murmur3 finalizer
+        long h = seed ^ 0xcbf29ce484222325L;
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        h &= ~1L;
+        // 0 marks an empty slot
+        return h == 0 ? 2 : h;
+    }
+}
@@ -0,0 +1,96 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A local near cache in front of a {@link RevocationStore}, so that
+ * checking a token generation is a map lookup and a long comparison
+ * most of the time.
+ *
+ * A revocation done on another node is seen after at most `ttl`
+ * milliseconds. Revocation done through this cache is seen right away.
+ * The generation to embed into a new token is read with
+ * {@link #refresh(String)}, which always goes to the store.
+ */
+final class RevocationNearCache implements RevocationStore {
+
+    private static final int MAX_ENTRIES = 64 * 1024;
+
+    private final RevocationStore store;
+    private final long ttl;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    RevocationNearCache(RevocationStore store, long ttl) {
+        this.store = store;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public long generation(String id) {
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(id);
+        if (null != entry && entry.expires > now) {
+            return entry.generation;
+        }
+        long generation = store.generation(id);
+        put(id, generation, now);
+        return generation;
+    }
+
+    /**
+     * Read the generation from the store and update the local cache
+     * @param id the ID
+     * @return the current generation
+     */
+    long refresh(String id) {
+        long generation = store.generation(id);
+        put(id, generation, System.currentTimeMillis());
+        return generation;
+    }
+
+    @Override
+    public long revoke(String id) {
+        long generation = store.revoke(id);
+        put(id, generation, System.currentTimeMillis());
+        return generation;
+    }
+
+    private void put(String id, long generation, long now) {
+        if (entries.size() >= MAX_ENTRIES) {
+            // bound the memory, entries are reloaded on demand
+            entries.clear();
+        }
+        entries.put(id, new Entry(generation, now + ttl));
+    }
+
+    private static class Entry {
+        final long generation;
+        final long expires;
+
+        Entry(long generation, long expires) {
+            this.generation = generation;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Keeps the minimum valid generation of tokens per ID, so that all
+ * outstanding tokens of an ID can be revoked at once, e.g. after a
+ * password reset.
+ *
+ * A {@link TokenCodec} configured with a revocation store via
+ * {@link TokenCodec.Builder#revocationStore(RevocationStore)} embeds
+ * the current generation of the ID into every token it generates, and
+ * {@link Token#isValid()} rejects tokens whose generation is lower than
+ * the current generation of their ID.
+ *
+ * Implementations must be thread safe.
+ */
+public interface RevocationStore {
+
+    /**
+     * Returns the current generation of the ID. Tokens of the ID with
+     * lower generation are revoked.
+     * @param id the token ID
+     * @return the current generation, `0` if the ID has never been revoked
+     */
+    long generation(String id);
+
+    /**
+     * Revoke all outstanding tokens of the ID by moving its generation
+     * forward.
+     * @param id the token ID
+     * @return the new generation of the ID
+     */
+    long revoke(String id);
+}
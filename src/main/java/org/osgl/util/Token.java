@@ -26,8 +26,15 @@ import org.osgl.cache.CacheServiceProvider;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A token is tool to generate a string with an ID and optionally a
@@ -88,39 +95,158 @@ public class Token implements Serializable {
             return due(seconds);
         }
 
+        /**
+         * Returns the life span in seconds
+         * @return the seconds of this token life
+         */
+        long seconds() {
+            return seconds;
+        }
+
         static long due(long seconds) {
             if (seconds <= 0) {
                 return -1;
             }
-            long now = System.currentTimeMillis();
+            long now = TokenClock.ms();
             long period = seconds * 1000;
             return now + period;
         }
     }
-    private static volatile CacheService cache;
-
-    private static CacheService cache() {
-        if (null != cache) {
-            return cache;
-        }
+    private static ConsumedTokenStore defaultStore() {
+        return DefaultStore.INSTANCE;
+    }
 
-        synchronized (Token.class) {
-            if (null == cache) {
-                String cacheName = System.getProperty("aaa.cache.name");
-                if (S.notBlank(cacheName)) {
-                    cache = CacheServiceProvider.Impl.Auto.get(cacheName);
-                } else {
-                    cache = CacheServiceProvider.Impl.Auto.get();
-                }
+    /*
+     * Holds the default store, which is created on first use by the
+     * class initialization without locking on the hot path
+     */
+    private static class DefaultStore {
+        static final ConsumedTokenStore INSTANCE = create();
+
+        private static ConsumedTokenStore create() {
+            String cacheName = System.getProperty("aaa.cache.name");
+            CacheService cache;
+            if (S.notBlank(cacheName)) {
+                cache = CacheServiceProvider.Impl.Auto.get(cacheName);
+            } else {
+                cache = CacheServiceProvider.Impl.Auto.get();
             }
+            return new CacheConsumedTokenStore(cache, Boolean.getBoolean("aaa.token.checkLegacyConsumedKey"));
         }
-
-        return cache;
     }
 
+    // the UID of 1.5.1, so tokens serialized by it can still be read
+    private static final long serialVersionUID = 5655503925539700317L;
+
     private String id;
     private long due;
     private List<String> payload = new ArrayList<String>();
+    private long generation;
+    private transient ConsumedTokenStore store;
+    private transient RevocationStore revocationStore;
+    private transient TokenFingerprint fingerprint;
+
+    void store(ConsumedTokenStore store) {
+        this.store = store;
+    }
+
+    void revocationStore(RevocationStore revocationStore) {
+        this.revocationStore = revocationStore;
+    }
+
+    void generation(long generation) {
+        this.generation = generation;
+    }
+
+    ConsumedTokenStore store() {
+        return null != store ? store : defaultStore();
+    }
+
+    /*
+     * Check a batch of tokens against the store, with one call if the
+     * store is a BulkConsumedTokenStore, or with single lookups spread
+     * across the store executor otherwise
+     */
+    static boolean[] consumed(final ConsumedTokenStore store, final List<Token> tokens) {
+        if (store instanceof BulkConsumedTokenStore) {
+            return ((BulkConsumedTokenStore) store).consumed(tokens);
+        }
+        final int n = tokens.size();
+        final boolean[] result = new boolean[n];
+        int chunks = Math.min(PARALLEL_LOOKUPS, (n + PARALLEL_CHUNK - 1) / PARALLEL_CHUNK);
+        if (chunks < 2) {
+            consumed(store, tokens, result, 0, n);
+            return result;
+        }
+        int chunk = (n + chunks - 1) / chunks;
+        List<Future<?>> futures = new ArrayList<Future<?>>(chunks - 1);
+        ExecutorService executor = TokenStoreExecutor.get();
+        for (int from = chunk; from < n; from += chunk) {
+            final int lo = from, hi = Math.min(n, from + chunk);
+            try {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        consumed(store, tokens, result, lo, hi);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // the caller blocks on the result anyway
+                consumed(store, tokens, result, lo, hi);
+            }
+        }
+        consumed(store, tokens, result, 0, chunk);
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw E.unexpected(e);
+        } catch (ExecutionException e) {
+            throw E.unexpected(e.getCause());
+        }
+        return result;
+    }
+
+    /*
+     * Consume a batch of tokens in the store, with one call if the store
+     * is a BulkConsumedTokenStore
+     */
+    static void consume(ConsumedTokenStore store, List<Token> tokens) {
+        if (store instanceof BulkConsumedTokenStore) {
+            ((BulkConsumedTokenStore) store).consume(tokens);
+            return;
+        }
+        for (Token token : tokens) {
+            store.consume(token);
+        }
+    }
+
+    private static void consumed(ConsumedTokenStore store, List<Token> tokens, boolean[] result, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            result[i] = store.consumed(tokens.get(i));
+        }
+    }
+
+    /*
+     * Max number of concurrent single lookups of one batch
+     */
+    private static final int PARALLEL_LOOKUPS = 8;
+
+    /*
+     * Min number of single lookups worth a separate task
+     */
+    private static final int PARALLEL_CHUNK = 16;
+
+    void init(String id, long due) {
+        this.id = id;
+        this.due = due;
+    }
+
+    void addPayload(String payload) {
+        this.payload.add(payload);
+    }
 
     /**
      * Return the ID of the token
@@ -130,6 +256,55 @@ public class Token implements Serializable {
         return id;
     }
 
+    /**
+     * Return the due timestamp of the token in milliseconds.
+     *
+     * Note `0` or negative number means never due
+     *
+     * @return the token due
+     */
+    public long due() {
+        return due;
+    }
+
+    /**
+     * Return the generation of the token.
+     *
+     * See {@link RevocationStore}
+     *
+     * @return the token generation, `0` if the token has no generation
+     */
+    public long generation() {
+        return generation;
+    }
+
+    /**
+     * Check if the token has been revoked by moving the generation of
+     * its ID forward in the {@link RevocationStore}.
+     *
+     * Tokens parsed by a {@link TokenCodec} without revocation store are
+     * never revoked.
+     *
+     * @return `true` if the token is revoked
+     */
+    public boolean revoked() {
+        return null != revocationStore && !isEmpty() && generation < revocationStore.generation(id);
+    }
+
+    /**
+     * Return the {@link TokenFingerprint fingerprint} of the token,
+     * which is used as the consumed token key
+     * @return the token fingerprint
+     */
+    public TokenFingerprint fingerprint() {
+        TokenFingerprint fp = fingerprint;
+        if (null == fp) {
+            fp = TokenFingerprint.of(id, due, generation, payload);
+            fingerprint = fp;
+        }
+        return fp;
+    }
+
     /**
      * Return the payload of the token
      * @return the token payload
@@ -166,7 +341,7 @@ public class Token implements Serializable {
     }
 
     public boolean expired() {
-        return due > 0 && due <= $.ms();
+        return due > 0 && due <= TokenClock.ms();
     }
 
     /**
@@ -198,14 +373,112 @@ public class Token implements Serializable {
      * @return {@code true} if the token {@link #consume() marked as consumed}
      */
     public boolean consumed() {
-        return cache().get("auth-tk-consumed-" + (id + due)) != null;
+        return store().consumed(this);
     }
 
     /**
      * Mark a token to be consumed
      */
     public void consume() {
-        cache().put("auth-tk-consumed-" + (id + due), "true", (int)(due + 1000 - System.currentTimeMillis())/1000);
+        store().consume(this);
+    }
+
+    /**
+     * Consume a one time token in one atomic operation.
+     *
+     * This replaces calling {@link #isValid()} followed by {@link #consume()},
+     * which takes two store round trips and allows two concurrent requests
+     * to both pass the check.
+     *
+     * @return `true` if the token is not {@link #isEmpty() empty}, not
+     *         {@link #expired() expired}, not {@link #revoked() revoked}
+     *         and is consumed by this call,
+     *         `false` otherwise
+     */
+    public boolean tryConsume() {
+        return !isEmpty() && !expired() && !revoked() && store().tryConsume(this);
+    }
+
+    /**
+     * Asynchronous version of {@link #isValid()}.
+     *
+     * Empty and expired tokens are rejected on the calling thread. The
+     * store lookups are done by the store directly if it is an
+     * {@link AsyncConsumedTokenStore}, or on a bounded executor otherwise.
+     * When the executor queue is full the future fails with a
+     * {@link java.util.concurrent.RejectedExecutionException}, and the
+     * calling thread is never blocked.
+     *
+     * @return the future of the validity of the token
+     */
+    public TokenFuture<Boolean> isValidAsync() {
+        if (isEmpty() || expired()) {
+            return TokenFuture.completed(false);
+        }
+        ConsumedTokenStore store = store();
+        if (null == revocationStore && store instanceof AsyncConsumedTokenStore) {
+            return not(((AsyncConsumedTokenStore) store).consumedAsync(this));
+        }
+        return TokenFuture.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return !revoked() && !consumed();
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #consume()}, see {@link #isValidAsync()}
+     * @return the future completed once the token is marked as consumed
+     */
+    public TokenFuture<Void> consumeAsync() {
+        ConsumedTokenStore store = store();
+        if (store instanceof AsyncConsumedTokenStore) {
+            return ((AsyncConsumedTokenStore) store).consumeAsync(this);
+        }
+        return TokenFuture.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                consume();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #tryConsume()}, see {@link #isValidAsync()}
+     * @return the future of whether the token is consumed by this call
+     */
+    public TokenFuture<Boolean> tryConsumeAsync() {
+        if (isEmpty() || expired()) {
+            return TokenFuture.completed(false);
+        }
+        ConsumedTokenStore store = store();
+        if (null == revocationStore && store instanceof AsyncConsumedTokenStore) {
+            return ((AsyncConsumedTokenStore) store).tryConsumeAsync(this);
+        }
+        return TokenFuture.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return !revoked() && store().tryConsume(Token.this);
+            }
+        });
+    }
+
+    private static TokenFuture<Boolean> not(TokenFuture<Boolean> future) {
+        final TokenFuture<Boolean> result = new TokenFuture<Boolean>();
+        future.onComplete(new TokenFuture.Callback<Boolean>() {
+            @Override
+            public void completed(Boolean consumed) {
+                result.complete(!consumed);
+            }
+
+            @Override
+            public void failed(Throwable cause) {
+                result.fail(cause);
+            }
+        });
+        return result;
     }
 
     /**
@@ -223,10 +496,85 @@ public class Token implements Serializable {
      * * token {@link #isEmpty() is empty}
      * * token {@link #consumed() is consumed}
      * * token {@link #expired() is expired}
+     * * token {@link #revoked() is revoked}
      * @return
      */
     public boolean isValid() {
-        return !isEmpty() && !expired() && !consumed();
+        return !isEmpty() && !expired() && !revoked() && !consumed();
+    }
+
+    /**
+     * Check if the tokens are consumed.
+     *
+     * Tokens are grouped by their {@link ConsumedTokenStore}. A store that
+     * is a {@link BulkConsumedTokenStore} is checked with one call per
+     * group, other stores are checked with single lookups running in
+     * parallel.
+     *
+     * @param tokens the tokens
+     * @return an array where element `i` is `true` if the `i`th token
+     *         in iteration order is {@link #consumed() consumed}
+     */
+    public static boolean[] consumed(Collection<Token> tokens) {
+        List<Token> list = new ArrayList<Token>(tokens);
+        boolean[] result = new boolean[list.size()];
+        lookupConsumed(list, result);
+        return result;
+    }
+
+    /**
+     * Check if the tokens are valid, same as calling {@link #isValid()}
+     * on each token, except the consumed checks are done in batch, see
+     * {@link #consumed(Collection)}.
+     *
+     * @param tokens the tokens
+     * @return an array where element `i` is `true` if the `i`th token
+     *         in iteration order {@link #isValid() is valid}
+     */
+    public static boolean[] validate(Collection<Token> tokens) {
+        int n = tokens.size();
+        List<Token> candidates = new ArrayList<Token>(n);
+        for (Token token : tokens) {
+            // rejected tokens are kept as null placeholders
+            candidates.add(token.isEmpty() || token.expired() || token.revoked() ? null : token);
+        }
+        boolean[] consumed = new boolean[n];
+        lookupConsumed(candidates, consumed);
+        boolean[] result = new boolean[n];
+        for (int i = 0; i < n; ++i) {
+            result[i] = null != candidates.get(i) && !consumed[i];
+        }
+        return result;
+    }
+
+    /*
+     * Group the tokens by store and look up each group in batch,
+     * null tokens are skipped
+     */
+    private static void lookupConsumed(List<Token> tokens, boolean[] result) {
+        Map<ConsumedTokenStore, List<Integer>> groups = new IdentityHashMap<ConsumedTokenStore, List<Integer>>();
+        for (int i = 0, n = tokens.size(); i < n; ++i) {
+            Token token = tokens.get(i);
+            if (null == token) continue;
+            ConsumedTokenStore store = token.store();
+            List<Integer> group = groups.get(store);
+            if (null == group) {
+                group = new ArrayList<Integer>();
+                groups.put(store, group);
+            }
+            group.add(i);
+        }
+        for (Map.Entry<ConsumedTokenStore, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> group = entry.getValue();
+            List<Token> batch = new ArrayList<Token>(group.size());
+            for (Integer i : group) {
+                batch.add(tokens.get(i));
+            }
+            boolean[] ba = consumed(entry.getKey(), batch);
+            for (int j = 0; j < ba.length; ++j) {
+                result[group.get(j)] = ba[j];
+            }
+        }
     }
 
     /**
@@ -334,13 +682,177 @@ public class Token implements Serializable {
      * @return an encrypted token string that is expiring in {@link Life#SHORT} time period
      */
     public static String generateToken(byte[] secret, long seconds, String oid, String... payload) {
-        long due = Life.due(seconds);
+        return Crypto.encryptAES(plainText(oid, Life.due(seconds), payload), secret);
+    }
+
+    /**
+     * Returns the plain text representation of a token before it
+     * get encrypted
+     * @param oid the token ID
+     * @param due the due timestamp
+     * @param payload the payload
+     * @return the plain text
+     */
+    static String plainText(String oid, long due, String... payload) {
         List<String> l = new ArrayList<String>(2 + payload.length);
         l.add(oid);
         l.add(String.valueOf(due));
         l.addAll(C.listOf(payload));
-        String s = S.join("|", l);
-        return Crypto.encryptAES(s, secret);
+        return S.join("|", l);
+    }
+
+    /**
+     * Parse a decrypted plain text into token object.
+     *
+     * The plain text is scanned in a single pass: the ID and the due
+     * are read in place and only the payload strings are created.
+     * The result is the same as splitting the text by `|`, i.e.
+     * trailing empty payloads are dropped.
+     *
+     * A due that cannot be parsed makes the token expired a day ago,
+     * which is what {@link #parseToken(byte[], String)} has always
+     * returned for it.
+     *
+     * @param s the plain text
+     * @return the token parsed
+     */
+    static Token parsePlainText(String s) {
+        return parsePlainText(s, true);
+    }
+
+    /**
+     * Parse a decrypted plain text into a token result, see
+     * {@link #parsePlainText(String)}. A due that cannot be parsed makes
+     * the result {@link TokenResult.Reason#MALFORMED malformed}.
+     *
+     * @param s the plain text
+     * @return the token result
+     */
+    static TokenResult plainTextResult(String s) {
+        Token tk = parsePlainText(s, false);
+        return null == tk ? TokenResult.MALFORMED : TokenResult.of(tk);
+    }
+
+    /*
+     * Returns `null` for a bad due unless `badDueExpired` is `true`
+     */
+    private static Token parsePlainText(String s, boolean badDueExpired) {
+        Token tk = new Token();
+        int end = plainTextEnd(s);
+        int idEnd = s.indexOf(SEPARATOR);
+        if (idEnd < 0 || idEnd >= end) return tk;
+        tk.id = s.substring(0, idEnd);
+        int dueStart = idEnd + 1;
+        int dueEnd = s.indexOf(SEPARATOR, dueStart);
+        if (dueEnd < 0 || dueEnd > end) {
+            dueEnd = end;
+        }
+        long due = parseDue(s, dueStart, dueEnd);
+        if (BAD_DUE == due) {
+            if (!badDueExpired) return null;
+            tk.due = TokenClock.ms() - 1000 * 60 * 60 * 24;
+            return tk;
+        }
+        tk.due = due;
+        if (tk.expired()) {
+            return tk;
+        }
+        int start = dueEnd + 1;
+        while (start <= end) {
+            int pos = s.indexOf(SEPARATOR, start);
+            if (pos < 0 || pos > end) {
+                pos = end;
+            }
+            tk.payload.add(s.substring(start, pos));
+            start = pos + 1;
+        }
+        return tk;
+    }
+
+    /**
+     * Check if a decrypted plain text is a valid token for the ID specified.
+     *
+     * Only the ID and due fields are read. The ID is compared in bytes
+     * and the payload is never decoded.
+     *
+     * @param oid the ID supposed to be encapsulated in the token
+     * @param bytes the plain text in UTF-8
+     * @return {@code true} if the plain text is a valid token
+     */
+    static boolean isPlainTextValid(String oid, byte[] bytes) {
+        int idEnd = indexOf(bytes, 0);
+        if (idEnd < 0 || !TokenBinaryFormat.matches(oid, bytes, 0, idEnd)) return false;
+        int dueStart = idEnd + 1;
+        int dueEnd = indexOf(bytes, dueStart);
+        if (dueEnd < 0) {
+            dueEnd = bytes.length;
+        }
+        // decode the due field only, which is a few ASCII digits
+        String s = new String(bytes, dueStart, dueEnd - dueStart, Charsets.UTF_8);
+        long due = parseDue(s, 0, s.length());
+        return BAD_DUE != due && (due < 1 || due > TokenClock.ms());
+    }
+
+    /*
+     * Returns the position of the first separator from `from` or `-1` if
+     * not found. The separator never appears inside a multibyte UTF-8 char
+     */
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; ++i) {
+            if (bytes[i] == SEPARATOR) return i;
+        }
+        return -1;
+    }
+
+    private static final char SEPARATOR = '|';
+
+    /*
+     * Marks a due field that cannot be parsed into a long value
+     */
+    private static final long BAD_DUE = Long.MIN_VALUE;
+
+    /*
+     * Returns the end of the plain text with trailing separators
+     * excluded, which matches `String.split` behavior that drops
+     * trailing empty strings
+     */
+    private static int plainTextEnd(String s) {
+        int end = s.length();
+        while (end > 0 && s.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        return end;
+    }
+
+    /*
+     * Parse the due in place. Accepts the same input as
+     * `Long.parseLong`, returns `BAD_DUE` if the text is
+     * not a valid long number
+     */
+    private static long parseDue(String s, int from, int to) {
+        if (from >= to) return BAD_DUE;
+        boolean negative = false;
+        char c = s.charAt(from);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            if (++from == to) return BAD_DUE;
+        }
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multLimit = limit / 10;
+        long result = 0;
+        // accumulate negatively to cover Long.MIN_VALUE like Long.parseLong does
+        for (int i = from; i < to; ++i) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result < multLimit) return BAD_DUE;
+            result *= 10;
+            if (result < limit + digit) return BAD_DUE;
+            result -= digit;
+        }
+        if (negative) {
+            // Long.MIN_VALUE cannot be told apart from BAD_DUE and is a never-due token anyway
+            return result == Long.MIN_VALUE ? -1 : result;
+        }
+        return -result;
     }
 
     /**
@@ -363,31 +875,31 @@ public class Token implements Serializable {
      * @return a token instance parsed from the string
      */
     public static Token parseToken(byte[] secret, String token) {
-        Token tk = new Token();
-        if (S.blank(token)) return tk;
-        String s = "";
-        try {
-            s = Crypto.decryptAES(token, secret);
-        } catch (Exception e) {
-            return tk;
-        }
-        String[] sa = s.split("\\|");
-        if (sa.length < 2) return tk;
-        tk.id = sa[0];
-        try {
-            tk.due = Long.parseLong(sa[1]);
-            if (tk.expired()) {
-                return tk;
-            }
-        } catch (Exception e) {
-            tk.due = $.ms() - 1000 * 60 * 60 * 24;
-            return tk;
-        }
-        if (sa.length > 2) {
-            sa = Arrays.copyOfRange(sa, 2, sa.length);
-            tk.payload.addAll(C.listOf(sa));
+        if (S.blank(token)) return new Token();
+        byte[] bytes = LegacyTokenKeys.plainText(secret, token);
+        return null == bytes ? new Token() : parsePlainText(new String(bytes, Charsets.UTF_8));
+    }
+
+    /**
+     * Validate a token string and tell why it is rejected if not valid.
+     *
+     * Unlike {@link #parseToken(byte[], String)} followed by {@link #isValid()},
+     * the result tells a {@link TokenResult.Reason#FORGED forged} token from
+     * a {@link TokenResult.Reason#MALFORMED malformed} or an
+     * {@link TokenResult.Reason#EXPIRED expired} one. No exception is
+     * created for rejected tokens.
+     *
+     * @param secret the secret to decrypt the token string
+     * @param token the token string
+     * @return the validation result
+     */
+    public static TokenResult validateToken(byte[] secret, String token) {
+        if (S.blank(token)) return TokenResult.MALFORMED;
+        TokenResult result = LegacyTokenKeys.parse(secret, token);
+        if (result.isOk() && result.token().consumed()) {
+            return TokenResult.of(TokenResult.Reason.CONSUMED, result.token());
         }
-        return tk;
+        return result;
     }
 
     /**
@@ -406,7 +918,11 @@ public class Token implements Serializable {
     }
 
     /**
-     * Check if a string is a valid token
+     * Check if a string is a valid token.
+     *
+     * A token string that cannot be decrypted is reported as not valid
+     * instead of throwing out an exception.
+     *
      * @param secret the secret to decrypt the string
      * @param oid the ID supposed to be encapsulated in the token
      * @param token the token string
@@ -417,16 +933,8 @@ public class Token implements Serializable {
         if (S.anyBlank(oid, token)) {
             return false;
         }
-        String s = Crypto.decryptAES(token, secret);
-        String[] sa = s.split("\\|");
-        if (sa.length < 2) return false;
-        if (!S.isEqual(oid, sa[0])) return false;
-        try {
-            long due = Long.parseLong(sa[1]);
-            return (due < 1 || due > System.currentTimeMillis());
-        } catch (Exception e) {
-            return false;
-        }
+        byte[] bytes = LegacyTokenKeys.plainText(secret, token);
+        return null != bytes && isPlainTextValid(oid, bytes);
     }
 
 }
@@ -0,0 +1,364 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The binary plain text format of a token.
+ *
+ * Layout:
+ *
+ * ```
+ * version      : 1 byte, {@link #V1} or {@link #V2}
+ * due          : varint, seconds since epoch, `0` means never due
+ * generation   : varint, only present in {@link #V2}
+ * id           : varint length + UTF-8 bytes
+ * payload *    : varint length + UTF-8 bytes, repeat till the end
+ * ```
+ *
+ * {@link #V1} is used when the token has no generation. The version
+ * byte is never a valid leading byte of an UTF-8 string, thus a binary
+ * plain text can always be told apart from the legacy `|` separated
+ * text format.
+ */
+final class TokenBinaryFormat {
+
+    static final byte V1 = (byte) 0xF8;
+    static final byte V2 = (byte) 0xF9;
+
+    private TokenBinaryFormat() {
+    }
+
+    /**
+     * Check if the decrypted bytes is in binary format
+     * @param bytes the plain text bytes
+     * @return `true` if the bytes is binary format
+     */
+    static boolean isBinary(byte[] bytes) {
+        return isBinary(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Check if the bytes between `offset` and `end` is in binary format
+     * @param bytes the buffer
+     * @param offset the start of the plain text
+     * @param end the end of the plain text
+     * @return `true` if the bytes is binary format
+     */
+    static boolean isBinary(byte[] bytes, int offset, int end) {
+        return end > offset && (bytes[offset] == V1 || bytes[offset] == V2);
+    }
+
+    /**
+     * Encode token data into binary format
+     * @param oid the token ID
+     * @param due the due timestamp in milliseconds
+     * @param payload the payload
+     * @return the binary plain text
+     */
+    static byte[] encode(String oid, long due, String... payload) {
+        return encode(oid, due, 0, payload);
+    }
+
+    /**
+     * Encode token data into binary format
+     * @param oid the token ID
+     * @param due the due timestamp in milliseconds
+     * @param generation the token generation, `0` means no generation
+     * @param payload the payload
+     * @return the binary plain text
+     */
+    static byte[] encode(String oid, long due, long generation, String... payload) {
+        byte[] id = oid.getBytes(Charsets.UTF_8);
+        int len = payload.length;
+        byte[][] pa = new byte[len][];
+        int size = 1 + 10 + 10 + 5 + id.length;
+        for (int i = 0; i < len; ++i) {
+            byte[] ba = payload[i].getBytes(Charsets.UTF_8);
+            pa[i] = ba;
+            size += 5 + ba.length;
+        }
+        Writer w = new Writer(size);
+        w.put(generation > 0 ? V2 : V1);
+        w.putVarLong(dueSeconds(due));
+        if (generation > 0) {
+            w.putVarLong(generation);
+        }
+        w.putBytes(id);
+        for (byte[] ba : pa) {
+            w.putBytes(ba);
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * Decode binary plain text into token
+     * @param bytes the binary plain text
+     * @return the token decoded, or an empty token if the bytes is malformed
+     */
+    static Token decode(byte[] bytes) {
+        return decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decode binary plain text between `offset` and `end` into token
+     * @param bytes the buffer
+     * @param offset the start of the plain text
+     * @param end the end of the plain text
+     * @return the token decoded, or an empty token if the bytes is malformed
+     */
+    static Token decode(byte[] bytes, int offset, int end) {
+        Token tk = new Token();
+        Reader r = new Reader(bytes, offset + 1, end);
+        long dueSeconds = r.varLong();
+        long generation = bytes[offset] == V2 ? r.varLong() : 0;
+        int idLen = r.length();
+        if (dueSeconds < 0 || generation < 0 || idLen < 0) return tk;
+        String id = r.string(idLen);
+        long due = dueMillis(dueSeconds);
+        tk.init(id, due);
+        tk.generation(generation);
+        if (tk.expired()) {
+            return tk;
+        }
+        while (r.hasMore()) {
+            int len = r.length();
+            if (len < 0) {
+                // malformed payload
+                return new Token();
+            }
+            tk.addPayload(r.string(len));
+        }
+        return tk;
+    }
+
+    /**
+     * Check if the binary plain text is a valid token for the ID specified
+     * @param oid the ID supposed to be encapsulated in the token
+     * @param bytes the binary plain text
+     * @param revocationStore the revocation store, could be `null`
+     * @return `true` if the bytes is a valid token
+     */
+    static boolean isValid(String oid, byte[] bytes, RevocationStore revocationStore) {
+        return isValid(oid, bytes, 0, bytes.length, revocationStore);
+    }
+
+    /**
+     * Check if the binary plain text between `offset` and `end` is a
+     * valid token for the ID specified
+     * @param oid the ID supposed to be encapsulated in the token
+     * @param bytes the buffer
+     * @param offset the start of the plain text
+     * @param end the end of the plain text
+     * @param revocationStore the revocation store, could be `null`
+     * @return `true` if the bytes is a valid token
+     */
+    static boolean isValid(String oid, byte[] bytes, int offset, int end, RevocationStore revocationStore) {
+        Reader r = new Reader(bytes, offset + 1, end);
+        long dueSeconds = r.varLong();
+        long generation = bytes[offset] == V2 ? r.varLong() : 0;
+        int idLen = r.length();
+        if (dueSeconds < 0 || generation < 0 || idLen < 0) return false;
+        if (!r.matches(oid, idLen)) return false;
+        long due = dueMillis(dueSeconds);
+        if (due > 0 && due <= TokenClock.ms()) return false;
+        return null == revocationStore || generation >= revocationStore.generation(oid);
+    }
+
+    /**
+     * Returns the number of leading plain text bytes that is enough to
+     * check the token against the ID specified, i.e. the version, due,
+     * generation and the ID field. The payload is never needed
+     * @param oid the ID supposed to be encapsulated in the token
+     * @return the length of the plain text header
+     */
+    static int headerLen(String oid) {
+        return 1 + 10 + 10 + 5 + oid.length() * 3;
+    }
+
+    /**
+     * Check if the bytes between `from` and `to` is the UTF-8 encoding
+     * of the string without decoding the bytes
+     * @param s the string
+     * @param buf the buffer
+     * @param from the start of the bytes
+     * @param to the end of the bytes
+     * @return `true` if the bytes matches the string
+     */
+    static boolean matches(String s, byte[] buf, int from, int to) {
+        for (int i = 0, n = s.length(); i < n; ++i) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // rare non ASCII ID, compare the encoded rest
+                byte[] rest = s.substring(i).getBytes(Charsets.UTF_8);
+                if (rest.length != to - from) return false;
+                for (byte b : rest) {
+                    if (buf[from++] != b) return false;
+                }
+                return true;
+            }
+            if (from == to || buf[from++] != c) return false;
+        }
+        return from == to;
+    }
+
+    /**
+     * Read the due of the binary plain text between `offset` and `end`
+     * without decoding the rest
+     * @param bytes the buffer
+     * @param offset the start of the plain text
+     * @param end the end of the plain text
+     * @return the due in milliseconds or {@link #BAD_DUE} if malformed
+     */
+    static long due(byte[] bytes, int offset, int end) {
+        if (!isBinary(bytes, offset, end)) return BAD_DUE;
+        long dueSeconds = new Reader(bytes, offset + 1, end).varLong();
+        return dueSeconds < 0 ? BAD_DUE : dueMillis(dueSeconds);
+    }
+
+    /**
+     * Marks a malformed due
+     */
+    static final long BAD_DUE = Long.MIN_VALUE;
+
+    /*
+     * Convert due in milliseconds to seconds. Round up so that
+     * a token never expires before the time requested
+     */
+    static long dueSeconds(long due) {
+        return due <= 0 ? 0 : (due + 999) / 1000;
+    }
+
+    static long dueMillis(long dueSeconds) {
+        return dueSeconds <= 0 ? -1 : dueSeconds * 1000;
+    }
+
+    static class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void put(byte b) {
+            ensure(1);
+            buf[pos++] = b;
+        }
+
+        void putVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void putBytes(byte[] bytes) {
+            putVarLong(bytes.length);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            if (pos == buf.length) {
+                return buf;
+            }
+            byte[] ba = new byte[pos];
+            System.arraycopy(buf, 0, ba, 0, pos);
+            return ba;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                byte[] ba = new byte[Math.max(buf.length << 1, pos + n)];
+                System.arraycopy(buf, 0, ba, 0, pos);
+                buf = ba;
+            }
+        }
+    }
+
+    /**
+     * Read fields from binary plain text. Never throws out an exception
+     * on malformed input, instead {@link #length()} returns `-1`.
+     */
+    static class Reader {
+        private final byte[] buf;
+        private final int end;
+        private int pos;
+
+        Reader(byte[] buf, int pos, int end) {
+            this.buf = buf;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        /**
+         * Returns the varint at current position or `-1` if malformed
+         */
+        long varLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64 && pos < end; shift += 7) {
+                byte b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            pos = end;
+            return -1;
+        }
+
+        /**
+         * Returns a field length at the current position or `-1` if
+         * the length is malformed or exceeds the remaining bytes
+         */
+        int length() {
+            long len = varLong();
+            if (len < 0 || len > end - pos) {
+                pos = end;
+                return -1;
+            }
+            return (int) len;
+        }
+
+        /**
+         * Check if the `len` bytes at the current position matches the
+         * string, see {@link TokenBinaryFormat#matches(String, byte[], int, int)}
+         */
+        boolean matches(String s, int len) {
+            int from = pos;
+            pos += len;
+            return TokenBinaryFormat.matches(s, buf, from, pos);
+        }
+
+        String string(int len) {
+            String s = new String(buf, pos, len, Charsets.UTF_8);
+            pos += len;
+            return s;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The clock used to calculate token due and check token expiry.
+ *
+ * Token expiry needs no more than second level precision, so the default
+ * clock is a coarse clock that reads the system time once per tick in one
+ * background daemon thread, and serves {@link #now()} with a volatile read.
+ *
+ * The clock can be replaced with {@link #set(TokenClock)}, e.g. with a
+ * {@link #fixed(long) fixed clock} to make expiry deterministic in tests
+ * and benchmarks.
+ */
+public abstract class TokenClock {
+
+    /**
+     * The tick of the default coarse clock in milliseconds
+     */
+    public static final long COARSE_TICK = 100;
+
+    /**
+     * The clock that reads {@link System#currentTimeMillis()} on every call
+     */
+    public static final TokenClock SYSTEM = new TokenClock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    private static volatile TokenClock current;
+
+    /**
+     * Returns the current time in milliseconds
+     * @return the current time
+     */
+    public abstract long now();
+
+    /**
+     * Returns the clock in use
+     * @return the clock
+     */
+    public static TokenClock get() {
+        TokenClock clock = current;
+        return null != clock ? clock : Coarse.INSTANCE;
+    }
+
+    /**
+     * Replace the clock in use
+     * @param clock the clock, or `null` to restore the default coarse clock
+     */
+    public static void set(TokenClock clock) {
+        current = clock;
+    }
+
+    /**
+     * Returns the current time of the clock in use
+     * @return the current time in milliseconds
+     */
+    static long ms() {
+        return get().now();
+    }
+
+    /**
+     * Returns a clock that always returns the time specified
+     * @param millis the time in milliseconds
+     * @return the fixed clock
+     */
+    public static TokenClock fixed(final long millis) {
+        return new TokenClock() {
+            @Override
+            public long now() {
+                return millis;
+            }
+        };
+    }
+
+    /*
+     * The default clock, the ticker thread starts on first use. The ticker
+     * ignores interrupts, e.g. from container thread cleanup, as a frozen
+     * clock would keep every token from expiring. If the ticker dies
+     * anyway, the clock falls back to the system time
+     */
+    private static class Coarse extends TokenClock implements Runnable {
+        static final Coarse INSTANCE = new Coarse();
+
+        private volatile long now = System.currentTimeMillis();
+        private volatile boolean ticking = true;
+
+        private Coarse() {
+            Thread ticker = new Thread(this, "token-clock");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+
+        @Override
+        public long now() {
+            return ticking ? now : System.currentTimeMillis();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    try {
+                        Thread.sleep(COARSE_TICK);
+                    } catch (InterruptedException e) {
+                        // keep ticking
+                    }
+                    now = System.currentTimeMillis();
+                }
+            } finally {
+                ticking = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,863 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+
+/**
+ * A `TokenCodec` generates and parses {@link Token} strings with
+ * a secret that is prepared only once.
+ * <p>
+ *     The static {@link Token#generateToken(byte[], long, String, String...)}
+ *     and {@link Token#parseToken(byte[], String)} methods build the
+ *     key spec and lookup the {@link javax.crypto.Cipher} from the JCA provider on
+ *     every call. A codec instance holds the prepared key and keeps a
+ *     pool of initialized {@code Cipher} instances, so the cost of each
+ *     token is only the cipher work.
+ * </p>
+ * <p>
+ *     In the default {@link Mode#ENCRYPTED} mode tokens generated by a
+ *     codec are compatible with the static methods of {@link Token} using
+ *     the same secret, and vice versa.
+ * </p>
+ * <p>
+ *     A codec instance is thread safe and is supposed to be created
+ *     once and shared across the application.
+ * </p>
+ */
+public class TokenCodec {
+
+    /**
+     * The plain text format of the token before it get encrypted.
+     */
+    public enum Format {
+        /**
+         * The legacy format: ID, due and payloads joined with `|`.
+         *
+         * This is the format used by the static methods of {@link Token}.
+         */
+        TEXT,
+
+        /**
+         * The compact binary format: a version byte, varint due seconds
+         * and length prefixed UTF-8 ID and payloads.
+         *
+         * It produces shorter tokens and allows payload to contain `|`.
+         * Tokens in this format can only be parsed by a `TokenCodec`.
+         */
+        BINARY
+    }
+
+    /**
+     * The way a token is protected
+     */
+    public enum Mode {
+        /**
+         * The legacy mode: the plain text is encrypted with AES and
+         * the token string is hex encoded.
+         *
+         * This is the mode used by the static methods of {@link Token}.
+         */
+        ENCRYPTED,
+
+        /**
+         * Encrypt-then-MAC mode: the binary plain text is encrypted with
+         * AES/CTR using a random IV, and the header, IV and cipher text are
+         * authenticated with a truncated HMAC-SHA256 tag. The token string
+         * is URL safe base64 encoded.
+         *
+         * The due is carried in a clear text header at fixed position,
+         * thus an expired token is rejected with an integer comparison
+         * before any crypto runs. The tag is verified before anything get
+         * decrypted, so a forged or truncated token is rejected with only
+         * one MAC calculation.
+         */
+        AUTHENTICATED,
+
+        /**
+         * Signed but not encrypted mode: the binary plain text is sent
+         * in clear text along with a truncated HMAC-SHA256 tag. The token
+         * string is URL safe base64 encoded.
+         *
+         * Use it for tokens that carry no secret data, e.g. unsubscribe
+         * links. Verification is one MAC over a small buffer without any
+         * cipher setup, and expired tokens are rejected before the MAC
+         * is calculated.
+         */
+        SIGNED
+    }
+
+    /**
+     * Build a {@link TokenCodec}.
+     */
+    public static class Builder {
+        private final TokenKeyRing keyRing;
+        private Mode mode = Mode.ENCRYPTED;
+        private Format format = Format.TEXT;
+        private boolean acceptLegacy;
+        private ConsumedTokenStore consumedTokenStore;
+        private RevocationStore revocationStore;
+        private long revocationCacheTtl = 1000;
+        private int parsedTokenCacheCapacity;
+        private long parsedTokenCacheTtl;
+        private int rejectedTokenCacheCapacity = 4096;
+
+        private Builder(TokenKeyRing keyRing) {
+            this.keyRing = $.requireNotNull(keyRing);
+        }
+
+        /**
+         * Specify the plain text format of generated tokens. Default
+         * is {@link Format#TEXT}.
+         *
+         * Note parsing always accept both formats
+         *
+         * @param format the format
+         * @return this builder
+         */
+        public Builder format(Format format) {
+            this.format = $.requireNotNull(format);
+            return this;
+        }
+
+        /**
+         * Specify the {@link Mode} of generated tokens. Default is
+         * {@link Mode#ENCRYPTED}.
+         *
+         * Note {@link Mode#AUTHENTICATED} and {@link Mode#SIGNED} tokens
+         * always use the {@link Format#BINARY binary format}.
+         *
+         * @param mode the mode
+         * @return this builder
+         */
+        public Builder mode(Mode mode) {
+            this.mode = $.requireNotNull(mode);
+            return this;
+        }
+
+        /**
+         * Specify whether legacy {@link Mode#ENCRYPTED encrypted} tokens
+         * shall be accepted when the codec is not in that mode. Default
+         * is `false`, so that garbage tokens never pay for decryption.
+         *
+         * Turn it on when migrating from the legacy tokens.
+         *
+         * @param acceptLegacy `true` to parse legacy encrypted tokens
+         * @return this builder
+         */
+        public Builder acceptLegacy(boolean acceptLegacy) {
+            this.acceptLegacy = acceptLegacy;
+            return this;
+        }
+
+        /**
+         * Specify the {@link ConsumedTokenStore} used by tokens parsed
+         * by the codec. If not specified the store backed by the
+         * application cache is used, same as tokens parsed by the static
+         * methods of {@link Token}.
+         *
+         * @param store the consumed token store
+         * @return this builder
+         */
+        public Builder consumedTokenStore(ConsumedTokenStore store) {
+            this.consumedTokenStore = $.requireNotNull(store);
+            return this;
+        }
+
+        /**
+         * Specify the {@link RevocationStore}. When specified the current
+         * generation of the ID is read from the store and embedded into
+         * every generated token, and tokens parsed by the codec are checked
+         * against the store in {@link Token#isValid()}.
+         *
+         * Revocation requires the {@link Format#BINARY binary format} or
+         * a mode other than {@link Mode#ENCRYPTED}.
+         *
+         * @param store the revocation store
+         * @return this builder
+         */
+        public Builder revocationStore(RevocationStore store) {
+            this.revocationStore = $.requireNotNull(store);
+            return this;
+        }
+
+        /**
+         * Specify how long in milliseconds a generation read from the
+         * {@link RevocationStore} is cached locally to validate tokens.
+         * Default is `1000`.
+         *
+         * Generating a token always reads the store, so a token generated
+         * right after a revocation on another node is not revoked.
+         *
+         * @param ttl the local cache ttl in milliseconds
+         * @return this builder
+         */
+        public Builder revocationCacheTtl(long ttl) {
+            E.illegalArgumentIf(ttl < 0, "ttl shall not be negative");
+            this.revocationCacheTtl = ttl;
+            return this;
+        }
+
+        /**
+         * Turn on the cache of parsed tokens, so that a token string
+         * presented again within the ttl is not decrypted again. Tokens
+         * that fail to parse are cached too. Default is off.
+         *
+         * An entry never lives beyond the token due. Note a cached token
+         * is shared by all callers parsing the same token string.
+         *
+         * @param capacity the max number of tokens cached
+         * @param ttl the max time in milliseconds a token is cached
+         * @return this builder
+         */
+        public Builder parsedTokenCache(int capacity, long ttl) {
+            E.illegalArgumentIf(capacity < 1, "capacity shall be positive");
+            E.illegalArgumentIf(ttl < 1, "ttl shall be positive");
+            this.parsedTokenCacheCapacity = capacity;
+            this.parsedTokenCacheTtl = ttl;
+            return this;
+        }
+
+        /**
+         * Specify the capacity of the cache of token strings that failed
+         * to parse, i.e. forged or malformed tokens, so that a replayed
+         * garbage token is rejected with a hash lookup. Default is `4096`.
+         *
+         * The cache is compact, it takes 8 bytes per entry.
+         *
+         * @param capacity the capacity, `0` to turn off the cache
+         * @return this builder
+         */
+        public Builder rejectedTokenCache(int capacity) {
+            E.illegalArgumentIf(capacity < 0, "capacity shall not be negative");
+            this.rejectedTokenCacheCapacity = capacity;
+            return this;
+        }
+
+        public TokenCodec build() {
+            return new TokenCodec(this);
+        }
+    }
+
+    /*
+     * The leading byte of authenticated token. It makes the token
+     * string start with `T`, which never appears in a hex encoded
+     * legacy token. V2 carries a key ID right after the leading byte
+     */
+    static final byte AUTHENTICATED_V1 = 0x4C;
+    static final byte AUTHENTICATED_V2 = 0x4D;
+    private static final char AUTHENTICATED_LEAD = 'T';
+
+    /*
+     * The leading byte of signed token, which makes the token string
+     * start with `S`. V2 carries a key ID right after the leading byte
+     */
+    static final byte SIGNED_V1 = 0x48;
+    static final byte SIGNED_V2 = 0x49;
+    private static final char SIGNED_LEAD = 'S';
+
+    /*
+     * Encrypted token stamped with key ID starts with `k` followed by
+     * the key ID in two hex digits
+     */
+    private static final char ENCRYPTED_STAMP = 'k';
+
+    private final Mode mode;
+    private final Format format;
+    private final boolean acceptLegacy;
+    private final TokenKeyRing keyRing;
+    private final TokenKey key;
+    private final boolean stamp;
+    private final ConsumedTokenStore consumedTokenStore;
+    private final RevocationNearCache revocationStore;
+    private final ParsedTokenCache parsedTokenCache;
+    private final RejectedTokenFilter rejectedTokens;
+    private final TokenRejections rejections = new TokenRejections();
+
+    /**
+     * Construct a codec with the secret and default settings.
+     *
+     * @param secret the secret to encrypt/decrypt token strings
+     */
+    public TokenCodec(byte[] secret) {
+        this(builder(secret));
+    }
+
+    private TokenCodec(Builder builder) {
+        this.mode = builder.mode;
+        this.format = builder.format;
+        this.acceptLegacy = Mode.ENCRYPTED == mode || builder.acceptLegacy;
+        this.keyRing = builder.keyRing;
+        this.key = keyRing.primaryKey();
+        this.stamp = keyRing.stamp();
+        this.consumedTokenStore = builder.consumedTokenStore;
+        E.illegalArgumentIf(null != builder.revocationStore && Mode.ENCRYPTED == mode && Format.TEXT == format,
+                "revocation requires binary format");
+        this.revocationStore = null == builder.revocationStore ? null
+                : new RevocationNearCache(builder.revocationStore, builder.revocationCacheTtl);
+        this.parsedTokenCache = builder.parsedTokenCacheCapacity < 1 ? null
+                : new ParsedTokenCache(builder.parsedTokenCacheCapacity, builder.parsedTokenCacheTtl);
+        this.rejectedTokens = builder.rejectedTokenCacheCapacity < 1 ? null
+                : new RejectedTokenFilter(builder.rejectedTokenCacheCapacity);
+        E.illegalArgumentIf(Mode.ENCRYPTED == mode && !key.legacyCapable(),
+                "256 bits AES is not available for encrypted tokens");
+        TokenKey legacyKey = keyRing.unstampedKey();
+        E.illegalArgumentIf(builder.acceptLegacy && null != legacyKey && !legacyKey.legacyCapable(),
+                "256 bits AES is not available for encrypted tokens");
+    }
+
+    /**
+     * Returns a {@link Builder} to build a codec with the secret specified
+     * @param secret the secret to encrypt/decrypt token strings
+     * @return a builder
+     */
+    public static Builder builder(byte[] secret) {
+        return new Builder(TokenKeyRing.single(secret));
+    }
+
+    /**
+     * Returns a {@link Builder} to build a codec with the key ring specified.
+     *
+     * Tokens generated by the codec are stamped with the primary key ID
+     * of the key ring.
+     *
+     * @param keyRing the key ring
+     * @return a builder
+     */
+    public static Builder builder(TokenKeyRing keyRing) {
+        return new Builder(keyRing);
+    }
+
+    /**
+     * Returns the {@link Mode} of tokens generated by this codec
+     * @return the mode
+     */
+    public Mode mode() {
+        return mode;
+    }
+
+    /**
+     * Returns the {@link Format} of tokens generated by this codec
+     * @return the format
+     */
+    public Format format() {
+        return format;
+    }
+
+    /**
+     * Generate a token string with ID and optionally payloads
+     * @param oid the ID of the token (could be customer ID etc)
+     * @param payload the payload optionally indicate more information
+     * @return an encrypted token string that is expiring in {@link Token.Life#SHORT} time period
+     */
+    public String generate(String oid, String... payload) {
+        return generate(Token.Life.SHORT, oid, payload);
+    }
+
+    /**
+     * Generate a token string with ID and optionally payloads
+     * @param tl the expiration of the token
+     * @param oid the ID of the token (could be customer ID etc)
+     * @param payload the payload optionally indicate more information
+     * @return an encrypted token string that is expiring in the token life specified
+     */
+    public String generate(Token.Life tl, String oid, String... payload) {
+        return generate(tl.seconds(), oid, payload);
+    }
+
+    /**
+     * Generate a token string with ID and optionally payloads
+     * @param seconds the expiration of the token in seconds
+     * @param oid the ID of the token (could be customer ID etc)
+     * @param payload the payload optionally indicate more information
+     * @return an encrypted token string that is expiring in the seconds specified
+     */
+    public String generate(long seconds, String oid, String... payload) {
+        return generate0(Token.Life.due(seconds), oid, payload);
+    }
+
+    /*
+     * Generate a token string with the due timestamp in milliseconds
+     */
+    String generate0(long due, String oid, String... payload) {
+        // read the store, not the near cache: a generation cached before a
+        // revocation on another node would get the new token revoked later
+        long generation = null == revocationStore ? 0 : revocationStore.refresh(oid);
+        if (Mode.AUTHENTICATED == mode) {
+            return seal(due, TokenBinaryFormat.encode(oid, due, generation, payload));
+        } else if (Mode.SIGNED == mode) {
+            return sign(TokenBinaryFormat.encode(oid, due, generation, payload));
+        }
+        byte[] plainText = Format.BINARY == format
+                ? TokenBinaryFormat.encode(oid, due, generation, payload)
+                : Token.plainText(oid, due, payload).getBytes(Charsets.UTF_8);
+        String hex = Codec.byteToHexString(key.encrypt(plainText));
+        if (!stamp) {
+            return hex;
+        }
+        int id = keyRing.primaryId();
+        return new StringBuilder(hex.length() + 3).append(ENCRYPTED_STAMP)
+                .append(Character.forDigit(id >> 4, 16)).append(Character.forDigit(id & 0xF, 16))
+                .append(hex).toString();
+    }
+
+    /**
+     * Parse a token string into token object.
+     *
+     * The {@link Mode} and plain text {@link Format} are detected
+     * automatically. Legacy encrypted tokens are only accepted in
+     * {@link Mode#ENCRYPTED} mode or when {@link Builder#acceptLegacy(boolean)}
+     * is turned on.
+     *
+     * @param token the token string
+     * @return a token instance parsed from the string
+     */
+    public Token parse(String token) {
+        return parse(token, null);
+    }
+
+    /**
+     * Parse a token string into token object, see {@link #parse(String)}.
+     *
+     * If the token is empty or expired, a rejection is counted against
+     * the source in {@link #rejections()}.
+     *
+     * @param token the token string
+     * @param source the source of the token, e.g. the client IP, could be `null`
+     * @return a token instance parsed from the string
+     */
+    public Token parse(String token, String source) {
+        TokenResult r = result(token);
+        Token tk = r.token();
+        if (null == tk) {
+            tk = new Token();
+            tk.store(consumedTokenStore);
+            tk.revocationStore(revocationStore);
+        }
+        if (!r.isOk()) {
+            rejections.record(source);
+        }
+        return tk;
+    }
+
+    /**
+     * Validate a token string and tell why it is rejected if not valid.
+     *
+     * Unlike {@link #parse(String)} no exception is created on the way
+     * and forged or malformed tokens share a constant result.
+     *
+     * @param token the token string
+     * @return the result of the validation
+     */
+    public TokenResult validate(String token) {
+        return validate(token, null);
+    }
+
+    /**
+     * Validate a token string, see {@link #validate(String)}.
+     *
+     * If the token is not valid, a rejection is counted against the
+     * source in {@link #rejections()}.
+     *
+     * @param token the token string
+     * @param source the source of the token, e.g. the client IP, could be `null`
+     * @return the result of the validation
+     */
+    public TokenResult validate(String token, String source) {
+        TokenResult r = result(token);
+        if (r.isOk()) {
+            Token tk = r.token();
+            if (tk.revoked()) {
+                r = TokenResult.of(TokenResult.Reason.REVOKED, tk);
+            } else if (tk.consumed()) {
+                r = TokenResult.of(TokenResult.Reason.CONSUMED, tk);
+            }
+        }
+        if (!r.isOk()) {
+            rejections.record(source);
+        }
+        return r;
+    }
+
+    /**
+     * Returns the rejected token counters of this codec
+     * @return the rejection counters
+     */
+    public TokenRejections rejections() {
+        return rejections;
+    }
+
+    /*
+     * Returns the parse result, which is not checked against the
+     * revocation and consumed token stores
+     */
+    TokenResult result(String token) {
+        if (null == parsedTokenCache || S.blank(token)) {
+            return result1(token);
+        }
+        TokenResult r = parsedTokenCache.get(token);
+        if (null == r) {
+            r = result1(token);
+            parsedTokenCache.put(token, r);
+        }
+        return r;
+    }
+
+    private TokenResult result1(String token) {
+        TokenResult r;
+        if (null == rejectedTokens || S.blank(token)) {
+            r = parse0(token);
+        } else {
+            r = rejectedTokens.get(token);
+            if (null == r) {
+                r = parse0(token);
+                if (r.isPermanent()) {
+                    rejectedTokens.add(token, r);
+                }
+            }
+        }
+        Token tk = r.token();
+        if (null != tk) {
+            tk.store(consumedTokenStore);
+            tk.revocationStore(revocationStore);
+        }
+        return r;
+    }
+
+    /**
+     * Revoke all outstanding tokens of the ID, see {@link RevocationStore}
+     * @param id the token ID
+     * @return the new generation of the ID
+     */
+    public long revoke(String id) {
+        E.illegalStateIf(null == revocationStore, "no revocation store configured");
+        return revocationStore.revoke(id);
+    }
+
+    private TokenResult parse0(String token) {
+        if (S.blank(token)) return TokenResult.MALFORMED;
+        char lead = token.charAt(0);
+        if (lead == SIGNED_LEAD) {
+            return parseSigned(token);
+        } else if (lead == AUTHENTICATED_LEAD) {
+            return parseAuthenticated(token);
+        }
+        return parseLegacy(token);
+    }
+
+    private TokenResult parseLegacy(String token) {
+        if (!acceptLegacy) return TokenResult.MALFORMED;
+        byte[] cipherText = legacyCipherText(token);
+        if (null == cipherText) return TokenResult.MALFORMED;
+        TokenKey key = legacyKey(token);
+        byte[] bytes = null == key ? null : key.decrypt(cipherText);
+        if (null == bytes) return TokenResult.FORGED;
+        if (TokenBinaryFormat.isBinary(bytes)) {
+            return TokenResult.of(TokenBinaryFormat.decode(bytes));
+        }
+        return Token.plainTextResult(new String(bytes, Charsets.UTF_8));
+    }
+
+    /**
+     * Check if a string is a valid token
+     * @param oid the ID supposed to be encapsulated in the token
+     * @param token the token string
+     * @return {@code true} if the token is valid
+     */
+    public boolean isValid(String oid, String token) {
+        return isValid(oid, token, null);
+    }
+
+    /**
+     * Check if a string is a valid token, see {@link #isValid(String, String)}.
+     *
+     * If the token is not valid, a rejection is counted against the
+     * source in {@link #rejections()}.
+     *
+     * @param oid the ID supposed to be encapsulated in the token
+     * @param token the token string
+     * @param source the source of the token, e.g. the client IP, could be `null`
+     * @return {@code true} if the token is valid
+     */
+    public boolean isValid(String oid, String token, String source) {
+        boolean valid = isValid0(oid, token);
+        if (!valid) {
+            rejections.record(source);
+        }
+        return valid;
+    }
+
+    private boolean isValid0(String oid, String token) {
+        if (S.anyBlank(oid, token)) {
+            return false;
+        }
+        if (null != rejectedTokens && rejectedTokens.contains(token)) {
+            return false;
+        }
+        if (null != parsedTokenCache) {
+            TokenResult r = parsedTokenCache.get(token);
+            if (null != r) {
+                Token tk = r.token();
+                return r.isOk() && S.eq(oid, tk.id()) && !tk.expired() && !tk.revoked();
+            }
+        }
+        char lead = token.charAt(0);
+        if (lead == SIGNED_LEAD) {
+            return isSignedValid(oid, token);
+        } else if (lead == AUTHENTICATED_LEAD) {
+            return isAuthenticatedValid(oid, token);
+        }
+        byte[] bytes = legacyPlainText(token);
+        if (null == bytes) return false;
+        if (TokenBinaryFormat.isBinary(bytes)) {
+            return TokenBinaryFormat.isValid(oid, bytes, revocationStore);
+        }
+        // text tokens carry no generation
+        return Token.isPlainTextValid(oid, bytes)
+                && (null == revocationStore || revocationStore.generation(oid) <= 0);
+    }
+
+    /*
+     * Returns the plain text of a legacy encrypted token or `null` if
+     * the token cannot be decrypted
+     */
+    private byte[] legacyPlainText(String token) {
+        if (!acceptLegacy) return null;
+        byte[] cipherText = legacyCipherText(token);
+        if (null == cipherText) return null;
+        TokenKey key = legacyKey(token);
+        return null == key ? null : key.decrypt(cipherText);
+    }
+
+    /*
+     * Returns the cipher text of a legacy encrypted token or `null` if
+     * it is not hex encoded AES blocks followed by the IV
+     */
+    private static byte[] legacyCipherText(String token) {
+        if (token.charAt(0) == ENCRYPTED_STAMP) {
+            if (token.length() < 3 || Character.digit(token.charAt(1), 16) < 0
+                    || Character.digit(token.charAt(2), 16) < 0) {
+                return null;
+            }
+            token = token.substring(3);
+        }
+        byte[] bytes = TokenEncoding.hexToBytes(token);
+        return TokenKey.isLegacyCipherText(bytes) ? bytes : null;
+    }
+
+    /*
+     * Returns the key of a legacy encrypted token or `null` if not found
+     */
+    private TokenKey legacyKey(String token) {
+        if (token.charAt(0) == ENCRYPTED_STAMP) {
+            int id = (Character.digit(token.charAt(1), 16) << 4) | Character.digit(token.charAt(2), 16);
+            return keyRing.key(id);
+        }
+        return keyRing.unstampedKey();
+    }
+
+    /*
+     * Returns the length of the envelope header before the due or the
+     * plain text, i.e. the version byte and the key ID if stamped
+     */
+    private static int headerLen(byte[] buf, byte stampedVersion) {
+        return buf[0] == stampedVersion ? 2 : 1;
+    }
+
+    /*
+     * Returns the key to verify an envelope or `null` if not found
+     */
+    private TokenKey keyOf(byte[] buf, byte stampedVersion) {
+        return buf[0] == stampedVersion ? keyRing.key(buf[1]) : keyRing.unstampedKey();
+    }
+
+    /*
+     * Write the version byte and key ID if stamped, returns the header length
+     */
+    private int writeHeader(byte[] buf, byte version, byte stampedVersion) {
+        if (!stamp) {
+            buf[0] = version;
+            return 1;
+        }
+        buf[0] = stampedVersion;
+        buf[1] = (byte) keyRing.primaryId();
+        return 2;
+    }
+
+    /*
+     * Authenticated token layout:
+     *
+     * version(1) | [key id(1)] | due(5) | iv(12) | cipher text | tag(16)
+     *
+     * where due is the big endian due seconds, `0` means never due, and
+     * the key ID is present in V2 only
+     */
+    private static final int DUE_LEN = 5;
+    private static final int BODY_OFFSET = DUE_LEN + TokenKey.IV_LEN;
+
+    private String seal(long due, byte[] plainText) {
+        int h = stamp ? 2 : 1;
+        int tagOffset = h + BODY_OFFSET + plainText.length;
+        byte[] buf = new byte[tagOffset + TokenKey.TAG_LEN];
+        writeHeader(buf, AUTHENTICATED_V1, AUTHENTICATED_V2);
+        long dueSeconds = TokenBinaryFormat.dueSeconds(due);
+        for (int i = DUE_LEN - 1; i >= 0; --i) {
+            buf[h + i] = (byte) dueSeconds;
+            dueSeconds >>>= 8;
+        }
+        int ivOffset = h + DUE_LEN;
+        TokenKey.randomIv(buf, ivOffset);
+        key.ctr(buf, ivOffset, plainText, 0, plainText.length, buf, h + BODY_OFFSET);
+        key.sign(buf, tagOffset);
+        return TokenEncoding.base64Url(buf);
+    }
+
+    private TokenResult parseAuthenticated(String token) {
+        byte[] buf = TokenEncoding.fromBase64Url(token);
+        int tagOffset = authenticatedTagOffset(buf);
+        if (tagOffset < 0) return TokenResult.MALFORMED;
+        int h = headerLen(buf, AUTHENTICATED_V2);
+        long due = headerDue(buf, h);
+        if (expired(due)) {
+            return expiredToken(due);
+        }
+        TokenKey key = keyOf(buf, AUTHENTICATED_V2);
+        if (null == key || !key.verify(buf, tagOffset)) return TokenResult.FORGED;
+        return TokenResult.of(TokenBinaryFormat.decode(open(key, buf, h, tagOffset)));
+    }
+
+    private boolean isAuthenticatedValid(String oid, String token) {
+        byte[] buf = TokenEncoding.fromBase64Url(token);
+        int tagOffset = authenticatedTagOffset(buf);
+        if (tagOffset < 0) return false;
+        int h = headerLen(buf, AUTHENTICATED_V2);
+        if (expired(headerDue(buf, h))) return false;
+        TokenKey key = keyOf(buf, AUTHENTICATED_V2);
+        return null != key && key.verify(buf, tagOffset)
+                && TokenBinaryFormat.isValid(oid, open(key, buf, h, tagOffset, TokenBinaryFormat.headerLen(oid)),
+                        revocationStore);
+    }
+
+    private static byte[] open(TokenKey key, byte[] buf, int h, int tagOffset) {
+        return open(key, buf, h, tagOffset, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Decrypt at most `limit` leading bytes of the plain text. As CTR is
+     * a stream mode, the header can be read without the payload
+     */
+    private static byte[] open(TokenKey key, byte[] buf, int h, int tagOffset, int limit) {
+        int bodyOffset = h + BODY_OFFSET;
+        byte[] plainText = new byte[Math.min(tagOffset - bodyOffset, limit)];
+        key.ctr(buf, h + DUE_LEN, buf, bodyOffset, plainText.length, plainText, 0);
+        return plainText;
+    }
+
+    private static long headerDue(byte[] buf, int h) {
+        long dueSeconds = 0;
+        for (int i = 0; i < DUE_LEN; ++i) {
+            dueSeconds = (dueSeconds << 8) | (buf[h + i] & 0xFF);
+        }
+        return TokenBinaryFormat.dueMillis(dueSeconds);
+    }
+
+    /*
+     * Returns the tag offset of an authenticated token buffer or `-1`
+     * if the buffer is not an authenticated token
+     */
+    private static int authenticatedTagOffset(byte[] buf) {
+        if (null == buf || buf.length == 0) return -1;
+        byte v = buf[0];
+        if (v != AUTHENTICATED_V1 && v != AUTHENTICATED_V2) return -1;
+        if (buf.length <= headerLen(buf, AUTHENTICATED_V2) + BODY_OFFSET + TokenKey.TAG_LEN) return -1;
+        return buf.length - TokenKey.TAG_LEN;
+    }
+
+    /*
+     * Signed token layout:
+     *
+     * version(1) | [key id(1)] | binary plain text | tag(16)
+     *
+     * where the key ID is present in V2 only
+     */
+    private String sign(byte[] plainText) {
+        int h = stamp ? 2 : 1;
+        int tagOffset = h + plainText.length;
+        byte[] buf = new byte[tagOffset + TokenKey.TAG_LEN];
+        writeHeader(buf, SIGNED_V1, SIGNED_V2);
+        System.arraycopy(plainText, 0, buf, h, plainText.length);
+        key.sign(buf, tagOffset);
+        return TokenEncoding.base64Url(buf);
+    }
+
+    private TokenResult parseSigned(String token) {
+        byte[] buf = TokenEncoding.fromBase64Url(token);
+        int tagOffset = signedTagOffset(buf);
+        if (tagOffset < 0) return TokenResult.MALFORMED;
+        int h = headerLen(buf, SIGNED_V2);
+        long due = TokenBinaryFormat.due(buf, h, tagOffset);
+        if (TokenBinaryFormat.BAD_DUE == due) return TokenResult.MALFORMED;
+        if (expired(due)) {
+            return expiredToken(due);
+        }
+        TokenKey key = keyOf(buf, SIGNED_V2);
+        if (null == key || !key.verify(buf, tagOffset)) return TokenResult.FORGED;
+        return TokenResult.of(TokenBinaryFormat.decode(buf, h, tagOffset));
+    }
+
+    private boolean isSignedValid(String oid, String token) {
+        byte[] buf = TokenEncoding.fromBase64Url(token);
+        int tagOffset = signedTagOffset(buf);
+        if (tagOffset < 0) return false;
+        int h = headerLen(buf, SIGNED_V2);
+        long due = TokenBinaryFormat.due(buf, h, tagOffset);
+        if (TokenBinaryFormat.BAD_DUE == due || expired(due)) return false;
+        TokenKey key = keyOf(buf, SIGNED_V2);
+        return null != key && key.verify(buf, tagOffset)
+                && TokenBinaryFormat.isValid(oid, buf, h, tagOffset, revocationStore);
+    }
+
+    /*
+     * Returns the tag offset of a signed token buffer or `-1` if the
+     * buffer is not a signed token
+     */
+    private static int signedTagOffset(byte[] buf) {
+        if (null == buf || buf.length == 0) return -1;
+        byte v = buf[0];
+        if (v != SIGNED_V1 && v != SIGNED_V2) return -1;
+        if (buf.length <= headerLen(buf, SIGNED_V2) + TokenKey.TAG_LEN) return -1;
+        return buf.length - TokenKey.TAG_LEN;
+    }
+
+    /*
+     * Returns the result of a token that is expired at the due. The ID
+     * is not exposed as the token has not been authenticated
+     */
+    private static TokenResult expiredToken(long due) {
+        Token tk = new Token();
+        tk.init(null, due);
+        return TokenResult.of(TokenResult.Reason.EXPIRED, tk);
+    }
+
+    private static boolean expired(long due) {
+        return due > 0 && due <= TokenClock.ms();
+    }
+}
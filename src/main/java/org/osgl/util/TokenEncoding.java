@@ -0,0 +1,134 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Arrays;
+
+/**
+ * Encode/decode token bytes into URL friendly strings.
+ *
+ * Unlike {@link Codec}, decoding never throws out exception on
+ * malformed input, instead `null` is returned, so that garbage
+ * tokens can be rejected without the cost of an exception.
+ */
+final class TokenEncoding {
+
+    private static final char[] BASE64_URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final byte[] BASE64_URL_INDEX = new byte[128];
+
+    static {
+        Arrays.fill(BASE64_URL_INDEX, (byte) -1);
+        for (int i = 0; i < BASE64_URL.length; ++i) {
+            BASE64_URL_INDEX[BASE64_URL[i]] = (byte) i;
+        }
+    }
+
+    private TokenEncoding() {
+    }
+
+    /**
+     * Decode hex string into bytes.
+     * @param s the hex string
+     * @return the bytes or `null` if the string is not a valid hex string
+     */
+    static byte[] hexToBytes(String s) {
+        int len = s.length();
+        if ((len & 1) != 0) return null;
+        byte[] bytes = new byte[len >> 1];
+        for (int i = 0, j = 0; i < len; i += 2, ++j) {
+            int hi = Character.digit(s.charAt(i), 16);
+            int lo = Character.digit(s.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            bytes[j] = (byte) ((hi << 4) | lo);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encode bytes into URL safe base64 string without padding
+     * @param bytes the bytes
+     * @return the encoded string
+     */
+    static String base64Url(byte[] bytes) {
+        int len = bytes.length;
+        char[] ca = new char[(len / 3) * 4 + (len % 3 == 0 ? 0 : len % 3 + 1)];
+        int i = 0, j = 0;
+        for (int end = len - len % 3; i < end; i += 3) {
+            int v = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            ca[j++] = BASE64_URL[v >>> 18];
+            ca[j++] = BASE64_URL[(v >>> 12) & 0x3F];
+            ca[j++] = BASE64_URL[(v >>> 6) & 0x3F];
+            ca[j++] = BASE64_URL[v & 0x3F];
+        }
+        int rest = len - i;
+        if (rest == 1) {
+            int v = (bytes[i] & 0xFF) << 4;
+            ca[j++] = BASE64_URL[v >>> 6];
+            ca[j] = BASE64_URL[v & 0x3F];
+        } else if (rest == 2) {
+            int v = (bytes[i] & 0xFF) << 10 | (bytes[i + 1] & 0xFF) << 2;
+            ca[j++] = BASE64_URL[v >>> 12];
+            ca[j++] = BASE64_URL[(v >>> 6) & 0x3F];
+            ca[j] = BASE64_URL[v & 0x3F];
+        }
+        return new String(ca);
+    }
+
+    /**
+     * Decode URL safe base64 string without padding.
+     * @param s the string
+     * @return the bytes decoded or `null` if the string is malformed
+     */
+    static byte[] fromBase64Url(String s) {
+        int len = s.length();
+        int rest = len & 3;
+        if (rest == 1) return null;
+        byte[] bytes = new byte[(len >> 2) * 3 + (rest == 0 ? 0 : rest - 1)];
+        int i = 0, j = 0;
+        for (int end = len - rest; i < end; i += 4) {
+            int a = index(s.charAt(i)), b = index(s.charAt(i + 1)),
+                    c = index(s.charAt(i + 2)), d = index(s.charAt(i + 3));
+            if ((a | b | c | d) < 0) return null;
+            int v = a << 18 | b << 12 | c << 6 | d;
+            bytes[j++] = (byte) (v >>> 16);
+            bytes[j++] = (byte) (v >>> 8);
+            bytes[j++] = (byte) v;
+        }
+        if (rest == 2) {
+            int a = index(s.charAt(i)), b = index(s.charAt(i + 1));
+            if ((a | b) < 0) return null;
+            bytes[j] = (byte) ((a << 2) | (b >>> 4));
+        } else if (rest == 3) {
+            int a = index(s.charAt(i)), b = index(s.charAt(i + 1)), c = index(s.charAt(i + 2));
+            if ((a | b | c) < 0) return null;
+            int v = a << 12 | b << 6 | c;
+            bytes[j++] = (byte) (v >>> 10);
+            bytes[j] = (byte) (v >>> 2);
+        }
+        return bytes;
+    }
+
+    private static int index(char c) {
+        return c < 128 ? BASE64_URL_INDEX[c] : -1;
+    }
+}
@@ -0,0 +1,173 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * A fixed 16 bytes fingerprint of a {@link Token}, digested from the
+ * ID, due, generation and payload of the token.
+ *
+ * Fingerprints are used as consumed token keys. A {@link ConsumedTokenStore}
+ * can keep the binary form via {@link #hi()} and {@link #lo()}, or use
+ * the compact string form returned by {@link #toString()}.
+ *
+ * Two tokens with the same ID and due but different payload have
+ * different fingerprints.
+ */
+public final class TokenFingerprint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TokenKey.Pool<MessageDigest> DIGESTS = new TokenKey.Pool<MessageDigest>() {
+        @Override
+        MessageDigest create() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (Exception e) {
+                throw E.unexpected(e);
+            }
+        }
+    };
+
+    private final long hi;
+    private final long lo;
+    private transient String str;
+
+    /**
+     * Construct a fingerprint from its binary form
+     * @param hi the high 8 bytes
+     * @param lo the low 8 bytes
+     */
+    public TokenFingerprint(long hi, long lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    /**
+     * Returns the high 8 bytes of the fingerprint
+     * @return the high 8 bytes
+     */
+    public long hi() {
+        return hi;
+    }
+
+    /**
+     * Returns the low 8 bytes of the fingerprint
+     * @return the low 8 bytes
+     */
+    public long lo() {
+        return lo;
+    }
+
+    /**
+     * Returns the fingerprint as 16 bytes array
+     * @return the bytes
+     */
+    public byte[] toByteArray() {
+        byte[] ba = new byte[16];
+        for (int i = 7; i >= 0; --i) {
+            ba[i] = (byte) (hi >>> ((7 - i) << 3));
+            ba[i + 8] = (byte) (lo >>> ((7 - i) << 3));
+        }
+        return ba;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (lo ^ (lo >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (obj instanceof TokenFingerprint) {
+            TokenFingerprint that = (TokenFingerprint) obj;
+            return that.hi == hi && that.lo == lo;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the compact string form of the fingerprint: a `~`
+     * followed by the URL safe base64 encoded bytes. 23 chars in total
+     * @return the string form
+     */
+    @Override
+    public String toString() {
+        String s = str;
+        if (null == s) {
+            s = "~" + TokenEncoding.base64Url(toByteArray());
+            str = s;
+        }
+        return s;
+    }
+
+    /**
+     * Digest the fingerprint of a token
+     * @param id the token ID
+     * @param due the token due
+     * @param generation the token generation
+     * @param payload the token payload
+     * @return the fingerprint
+     */
+    static TokenFingerprint of(String id, long due, long generation, List<String> payload) {
+        MessageDigest md = DIGESTS.acquire();
+        update(md, id);
+        update(md, due);
+        if (generation > 0) {
+            // tokens without generation keep the same fingerprint
+            update(md, generation);
+        }
+        for (String s : payload) {
+            update(md, s);
+        }
+        byte[] ba = md.digest();
+        DIGESTS.release(md);
+        long hi = 0, lo = 0;
+        for (int i = 0; i < 8; ++i) {
+            hi = (hi << 8) | (ba[i] & 0xFF);
+            lo = (lo << 8) | (ba[i + 8] & 0xFF);
+        }
+        return new TokenFingerprint(hi, lo);
+    }
+
+    private static void update(MessageDigest md, long v) {
+        for (int i = 56; i >= 0; i -= 8) {
+            md.update((byte) (v >>> i));
+        }
+    }
+
+    /*
+     * Length prefixed so that field boundaries are part of the digest
+     */
+    private static void update(MessageDigest md, String s) {
+        byte[] ba = null == s ? new byte[0] : s.getBytes(Charsets.UTF_8);
+        int len = ba.length;
+        md.update((byte) (len >>> 24));
+        md.update((byte) (len >>> 16));
+        md.update((byte) (len >>> 8));
+        md.update((byte) len);
+        md.update(ba);
+    }
+}
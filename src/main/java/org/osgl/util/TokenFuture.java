@@ -0,0 +1,216 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The result of an asynchronous token operation, e.g.
+ * {@link Token#isValidAsync()}.
+ *
+ * Besides blocking on {@link #get()} the caller can register a
+ * {@link Callback} with {@link #onComplete(Callback)}, which is called
+ * once the result is available. A callback registered after completion
+ * is called immediately on the registering thread, otherwise it is
+ * called on the thread that completes the future.
+ *
+ * @param <T> the result type
+ */
+public final class TokenFuture<T> implements Future<T> {
+
+    /**
+     * Receives the result of a {@link TokenFuture}
+     * @param <T> the result type
+     */
+    public interface Callback<T> {
+        /**
+         * Called when the operation succeeded
+         * @param result the result
+         */
+        void completed(T result);
+
+        /**
+         * Called when the operation failed or is cancelled
+         * @param cause the failure cause
+         */
+        void failed(Throwable cause);
+    }
+
+    private static final int PENDING = 0;
+    private static final int COMPLETING = 1;
+    private static final int DONE = 2;
+
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final Queue<Callback<? super T>> callbacks = new ConcurrentLinkedQueue<Callback<? super T>>();
+    private volatile T result;
+    private volatile Throwable cause;
+
+    /**
+     * Construct a pending future, to be completed by
+     * {@link #complete(Object)} or {@link #fail(Throwable)}
+     */
+    public TokenFuture() {
+    }
+
+    /**
+     * Returns a future completed with the result
+     * @param result the result
+     * @param <T> the result type
+     * @return the completed future
+     */
+    public static <T> TokenFuture<T> completed(T result) {
+        TokenFuture<T> future = new TokenFuture<T>();
+        future.complete(result);
+        return future;
+    }
+
+    /*
+     * Run the task on the store executor. The future fails with a
+     * RejectedExecutionException if the executor is saturated
+     */
+    static <T> TokenFuture<T> submit(final Callable<T> task) {
+        final TokenFuture<T> future = new TokenFuture<T>();
+        try {
+            TokenStoreExecutor.get().execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isDone()) return;
+                    try {
+                        future.complete(task.call());
+                    } catch (Throwable e) {
+                        future.fail(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.fail(e);
+        }
+        return future;
+    }
+
+    /**
+     * Register a callback to be called when the result is available
+     * @param callback the callback
+     * @return this future
+     */
+    public TokenFuture<T> onComplete(Callback<? super T> callback) {
+        callbacks.add(callback);
+        if (isDone()) {
+            notifyCallbacks();
+        }
+        return this;
+    }
+
+    /**
+     * Complete the future with the result
+     * @param result the result
+     * @return `true` if the future is completed by this call
+     */
+    public boolean complete(T result) {
+        if (!state.compareAndSet(PENDING, COMPLETING)) return false;
+        this.result = result;
+        done();
+        return true;
+    }
+
+    /**
+     * Complete the future with the failure
+     * @param cause the failure cause
+     * @return `true` if the future is completed by this call
+     */
+    public boolean fail(Throwable cause) {
+        if (!state.compareAndSet(PENDING, COMPLETING)) return false;
+        this.cause = cause;
+        done();
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return fail(new CancellationException());
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cause instanceof CancellationException;
+    }
+
+    @Override
+    public boolean isDone() {
+        return state.get() == DONE;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    private T report() throws ExecutionException {
+        Throwable t = cause;
+        if (null == t) {
+            return result;
+        }
+        if (t instanceof CancellationException) {
+            throw (CancellationException) t;
+        }
+        throw new ExecutionException(t);
+    }
+
+    private void done() {
+        state.set(DONE);
+        latch.countDown();
+        notifyCallbacks();
+    }
+
+    private void notifyCallbacks() {
+        // poll makes sure each callback is called exactly once even if
+        // completion races with registration
+        Callback<? super T> callback;
+        while (null != (callback = callbacks.poll())) {
+            Throwable t = cause;
+            if (null == t) {
+                callback.completed(result);
+            } else {
+                callback.failed(t);
+            }
+        }
+    }
+}
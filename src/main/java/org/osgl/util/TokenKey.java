@@ -0,0 +1,348 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The prepared crypto state of one token secret.
+ *
+ * A `TokenKey` derives all keys from the secret once and keeps
+ * initialized {@link Cipher}/{@link Mac} instances in lock free pools:
+ *
+ * * the legacy AES/CBC key, which is the first 32 bytes of the
+ *   SHA-384 digest of the secret, same as
+ *   {@link Crypto#encryptAES(String, byte[])}
+ * * the AES/CTR key used to encrypt authenticated tokens, derived
+ *   from the secret
+ * * the HMAC-SHA256 key used to authenticate tokens, derived from
+ *   the secret
+ *
+ * An instance is taken from the pool for the duration of one operation
+ * and then returned. Unlike thread locals, the number of instances is
+ * bounded by the number of concurrent operations rather than the number
+ * of threads, which matters when tokens are handled on virtual threads.
+ */
+final class TokenKey {
+
+    /**
+     * The length of the authentication tag in bytes
+     */
+    static final int TAG_LEN = 16;
+
+    /**
+     * The length of the random IV carried by authenticated tokens
+     */
+    static final int IV_LEN = 12;
+
+    /*
+     * The length of the random IV appended to legacy cipher text
+     */
+    private static final int LEGACY_IV_LEN = 16;
+
+    private static final String AES = "AES";
+    private static final String AES_CBC = "AES/CBC/PKCS5Padding";
+    private static final String AES_CTR = "AES/CTR/NoPadding";
+    private static final String HMAC = "HmacSHA256";
+
+    private final boolean legacyCapable;
+    private final SecretKeySpec legacyKey;
+    private final CipherPool legacyEncryptors;
+    private final CipherPool legacyDecryptors;
+    private final SecretKeySpec ctrKey;
+    private final CipherPool ctrCiphers;
+    private final Pool<Mac> macs;
+
+    private static final Pool<SecureRandom> RANDOMS = new Pool<SecureRandom>() {
+        @Override
+        SecureRandom create() {
+            return new SecureRandom();
+        }
+    };
+
+    TokenKey(byte[] secret) {
+        E.illegalArgumentIf(null == secret || secret.length == 0, "secret required");
+        this.legacyKey = legacyKey(secret);
+        this.legacyCapable = null != legacyKey;
+        this.legacyEncryptors = new CipherPool(AES_CBC, Cipher.ENCRYPT_MODE, null);
+        this.legacyDecryptors = new CipherPool(AES_CBC, Cipher.DECRYPT_MODE, null);
+        byte[] encKey = new byte[16];
+        System.arraycopy(derive(secret, "osgl-token-enc"), 0, encKey, 0, encKey.length);
+        this.ctrKey = new SecretKeySpec(encKey, AES);
+        this.ctrCiphers = new CipherPool(AES_CTR, Cipher.ENCRYPT_MODE, null);
+        final SecretKeySpec macKey = new SecretKeySpec(derive(secret, "osgl-token-mac"), HMAC);
+        this.macs = new Pool<Mac>() {
+            @Override
+            Mac create() {
+                try {
+                    Mac mac = Mac.getInstance(HMAC);
+                    mac.init(macKey);
+                    return mac;
+                } catch (Exception e) {
+                    throw E.unexpected(e);
+                }
+            }
+        };
+        // fail fast on missing providers
+        this.macs.release(macs.acquire());
+        this.ctrCiphers.release(ctrCiphers.acquire());
+    }
+
+    /**
+     * Check if the JVM allows the 256 bits AES key of legacy encrypted
+     * tokens
+     * @return `true` if the key supports the legacy encrypted tokens
+     */
+    boolean legacyCapable() {
+        return legacyCapable;
+    }
+
+    /**
+     * Check if the bytes is shaped like a legacy cipher text, i.e. at
+     * least one AES block followed by the IV
+     * @param bytes the bytes
+     * @return `true` if the bytes could be a legacy cipher text
+     */
+    static boolean isLegacyCipherText(byte[] bytes) {
+        return null != bytes && bytes.length >= 2 * LEGACY_IV_LEN && (bytes.length & 15) == 0;
+    }
+
+    /**
+     * Encrypt the plain text in the same way as {@link Crypto#encryptAES(String, byte[])},
+     * i.e. AES/CBC with a random IV appended to the cipher text
+     * @param plainText the plain text
+     * @return the cipher text followed by the IV
+     */
+    byte[] encrypt(byte[] plainText) {
+        E.illegalStateIf(!legacyCapable, "256 bits AES is not available for encrypted tokens");
+        byte[] iv = new byte[LEGACY_IV_LEN];
+        random(iv, 0, LEGACY_IV_LEN);
+        Cipher cipher = legacyEncryptors.acquire();
+        byte[] cipherText;
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, legacyKey, new IvParameterSpec(iv));
+            cipherText = cipher.doFinal(plainText);
+        } catch (Exception e) {
+            // drop the cipher in unknown state
+            throw E.unexpected(e);
+        }
+        legacyEncryptors.release(cipher);
+        byte[] out = new byte[cipherText.length + LEGACY_IV_LEN];
+        System.arraycopy(cipherText, 0, out, 0, cipherText.length);
+        System.arraycopy(iv, 0, out, cipherText.length, LEGACY_IV_LEN);
+        return out;
+    }
+
+    /**
+     * Decrypt the cipher text in the same way as {@link Crypto#decryptAES(String, byte[])}
+     * @param bytes the cipher text followed by the IV
+     * @return the plain text or `null` if the cipher text cannot be decrypted
+     */
+    byte[] decrypt(byte[] bytes) {
+        if (!legacyCapable || !isLegacyCipherText(bytes)) return null;
+        int len = bytes.length - LEGACY_IV_LEN;
+        Cipher cipher = legacyDecryptors.acquire();
+        byte[] plainText;
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, legacyKey, new IvParameterSpec(bytes, len, LEGACY_IV_LEN));
+            plainText = cipher.doFinal(bytes, 0, len);
+        } catch (Exception e) {
+            // drop the cipher in unknown state
+            return null;
+        }
+        legacyDecryptors.release(cipher);
+        return plainText;
+    }
+
+    /**
+     * Fill in random IV at the offset of the buffer
+     * @param buf the buffer
+     * @param offset the offset
+     */
+    static void randomIv(byte[] buf, int offset) {
+        random(buf, offset, IV_LEN);
+    }
+
+    private static void random(byte[] buf, int offset, int len) {
+        byte[] ba = new byte[len];
+        SecureRandom random = RANDOMS.acquire();
+        random.nextBytes(ba);
+        RANDOMS.release(random);
+        System.arraycopy(ba, 0, buf, offset, len);
+    }
+
+    /**
+     * Apply AES/CTR key stream to the input. As CTR mode is symmetric
+     * the same method is used for both encryption and decryption.
+     *
+     * @param iv the buffer contains the IV
+     * @param ivOffset the offset of IV in the buffer
+     * @param in the input
+     * @param inOffset the offset of input
+     * @param len the length of input
+     * @param out the output
+     * @param outOffset the offset of output
+     */
+    void ctr(byte[] iv, int ivOffset, byte[] in, int inOffset, int len, byte[] out, int outOffset) {
+        // 12 bytes random IV followed by a 4 bytes block counter starts from zero
+        byte[] counter = new byte[16];
+        System.arraycopy(iv, ivOffset, counter, 0, IV_LEN);
+        Cipher cipher = ctrCiphers.acquire();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, ctrKey, new IvParameterSpec(counter));
+            cipher.doFinal(in, inOffset, len, out, outOffset);
+        } catch (Exception e) {
+            // drop the cipher in unknown state
+            throw E.unexpected(e);
+        }
+        ctrCiphers.release(cipher);
+    }
+
+    /**
+     * Calculate the authentication tag of the first `len` bytes of the
+     * buffer and write it right after them.
+     *
+     * @param buf the buffer, must have {@link #TAG_LEN} bytes after `len`
+     * @param len the length of data to be authenticated
+     */
+    void sign(byte[] buf, int len) {
+        Mac mac = macs.acquire();
+        mac.update(buf, 0, len);
+        byte[] tag = mac.doFinal();
+        macs.release(mac);
+        System.arraycopy(tag, 0, buf, len, TAG_LEN);
+    }
+
+    /**
+     * Verify the authentication tag that follows the first `len` bytes
+     * of the buffer. The tag is compared in constant time.
+     *
+     * @param buf the buffer
+     * @param len the length of authenticated data
+     * @return `true` if the tag matches
+     */
+    boolean verify(byte[] buf, int len) {
+        if (len < 0 || buf.length - len != TAG_LEN) return false;
+        Mac mac = macs.acquire();
+        mac.update(buf, 0, len);
+        byte[] tag = mac.doFinal();
+        macs.release(mac);
+        int diff = 0;
+        for (int i = 0; i < TAG_LEN; ++i) {
+            diff |= tag[i] ^ buf[len + i];
+        }
+        return diff == 0;
+    }
+
+    /*
+     * Returns the key of Crypto.encryptAES, or `null` if the JVM does
+     * not allow 256 bits AES keys
+     */
+    private static SecretKeySpec legacyKey(byte[] secret) {
+        try {
+            if (Cipher.getMaxAllowedKeyLength(AES) < 256) return null;
+            byte[] digest = MessageDigest.getInstance("SHA-384").digest(secret);
+            byte[] key = new byte[32];
+            System.arraycopy(digest, 0, key, 0, key.length);
+            return new SecretKeySpec(key, AES);
+        } catch (Exception e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    private static byte[] derive(byte[] secret, String label) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            return mac.doFinal(label.getBytes(Charsets.UTF_8));
+        } catch (Exception e) {
+            throw E.unexpected(e);
+        }
+    }
+
+    /**
+     * A lock free pool of reusable instances. At most {@link #MAX_IDLE}
+     * idle instances are kept, extra instances are left to the GC.
+     */
+    abstract static class Pool<T> {
+        private static final int MAX_IDLE = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+
+        private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+        private final AtomicInteger size = new AtomicInteger();
+
+        T acquire() {
+            T t = idle.poll();
+            if (null == t) {
+                return create();
+            }
+            size.decrementAndGet();
+            return t;
+        }
+
+        void release(T t) {
+            if (size.incrementAndGet() > MAX_IDLE) {
+                size.decrementAndGet();
+                return;
+            }
+            idle.offer(t);
+        }
+
+        abstract T create();
+    }
+
+    /**
+     * Pools {@link Cipher} instances. The cipher is initialized with
+     * the key if provided.
+     */
+    private static class CipherPool extends Pool<Cipher> {
+        private final String transformation;
+        private final int mode;
+        private final Key key;
+
+        CipherPool(String transformation, int mode, Key key) {
+            this.transformation = transformation;
+            this.mode = mode;
+            this.key = key;
+        }
+
+        @Override
+        Cipher create() {
+            try {
+                Cipher cipher = Cipher.getInstance(transformation);
+                if (null != key) {
+                    cipher.init(mode, key);
+                }
+                return cipher;
+            } catch (Exception e) {
+                throw E.unexpected(e);
+            }
+        }
+    }
+}
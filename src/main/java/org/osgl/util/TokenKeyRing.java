@@ -0,0 +1,177 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * A set of token secrets identified by one byte key IDs, which allows
+ * rotating the token secret without downtime.
+ *
+ * A {@link TokenCodec} built with a key ring stamps the ID of the
+ * {@link #primaryId() primary key} into every token it generates, and
+ * picks the key to parse a token by the stamped key ID with an array
+ * lookup. Thus tokens generated with a retiring key are still accepted
+ * and rotation never multiplies the decryption work.
+ *
+ * Typical rotation:
+ *
+ * 1. add the new key: `ring = ring.add(2, newSecret)`
+ * 2. once all nodes know the new key, make it primary: `ring = ring.primary(2)`
+ * 3. once all tokens generated with the old key are expired, remove it:
+ *    `ring = ring.remove(1)`
+ *
+ * Tokens generated before the key ring is introduced carry no key ID,
+ * use {@link #unstamped(int)} to specify the key to parse them.
+ *
+ * A key ring is immutable.
+ */
+public final class TokenKeyRing {
+
+    private static final int SIZE = 256;
+
+    private final TokenKey[] keys;
+    private final int primary;
+    private final int unstamped;
+    private final boolean stamp;
+
+    private TokenKeyRing(TokenKey[] keys, int primary, int unstamped, boolean stamp) {
+        this.keys = keys;
+        this.primary = primary;
+        this.unstamped = unstamped;
+        this.stamp = stamp;
+    }
+
+    /**
+     * Create a key ring with the primary key
+     * @param id the key ID, between `0` and `255`
+     * @param secret the secret
+     * @return the key ring
+     */
+    public static TokenKeyRing of(int id, byte[] secret) {
+        checkId(id);
+        TokenKey[] keys = new TokenKey[SIZE];
+        keys[id] = new TokenKey(secret);
+        return new TokenKeyRing(keys, id, -1, true);
+    }
+
+    /**
+     * Create a key ring of one secret which does not stamp key ID, i.e.
+     * tokens are the same as generated with the secret directly
+     * @param secret the secret
+     * @return the key ring
+     */
+    static TokenKeyRing single(byte[] secret) {
+        TokenKey[] keys = new TokenKey[SIZE];
+        keys[0] = new TokenKey(secret);
+        return new TokenKeyRing(keys, 0, 0, false);
+    }
+
+    /**
+     * Returns a key ring with the key added
+     * @param id the key ID, between `0` and `255`
+     * @param secret the secret
+     * @return a new key ring
+     */
+    public TokenKeyRing add(int id, byte[] secret) {
+        checkId(id);
+        E.illegalArgumentIf(null != keys[id], "key ID already exists: %s", id);
+        TokenKey[] ka = keys.clone();
+        ka[id] = new TokenKey(secret);
+        return new TokenKeyRing(ka, primary, unstamped, stamp);
+    }
+
+    /**
+     * Returns a key ring with the key removed. Tokens stamped with
+     * the key are not accepted any more
+     * @param id the key ID
+     * @return a new key ring
+     */
+    public TokenKeyRing remove(int id) {
+        checkKey(id);
+        E.illegalArgumentIf(id == primary, "cannot remove the primary key");
+        TokenKey[] ka = keys.clone();
+        ka[id] = null;
+        return new TokenKeyRing(ka, primary, id == unstamped ? -1 : unstamped, stamp);
+    }
+
+    /**
+     * Returns a key ring with the primary key switched
+     * @param id the ID of the key used to generate new tokens
+     * @return a new key ring
+     */
+    public TokenKeyRing primary(int id) {
+        checkKey(id);
+        return new TokenKeyRing(keys, id, unstamped, stamp);
+    }
+
+    /**
+     * Returns a key ring which parses tokens without key ID with the key
+     * specified
+     * @param id the ID of the key that generated tokens before the key
+     *           ring is introduced
+     * @return a new key ring
+     */
+    public TokenKeyRing unstamped(int id) {
+        checkKey(id);
+        return new TokenKeyRing(keys, primary, id, stamp);
+    }
+
+    /**
+     * Returns the ID of the primary key
+     * @return the primary key ID
+     */
+    public int primaryId() {
+        return primary;
+    }
+
+    TokenKey primaryKey() {
+        return keys[primary];
+    }
+
+    /**
+     * Returns the key of the ID or `null` if not found
+     */
+    TokenKey key(int id) {
+        return keys[id & 0xFF];
+    }
+
+    /**
+     * Returns the key for tokens without key ID or `null` if not specified
+     */
+    TokenKey unstampedKey() {
+        return unstamped < 0 ? null : keys[unstamped];
+    }
+
+    /**
+     * Whether to stamp key ID into generated tokens
+     */
+    boolean stamp() {
+        return stamp;
+    }
+
+    private void checkKey(int id) {
+        checkId(id);
+        E.illegalArgumentIf(null == keys[id], "key ID not found: %s", id);
+    }
+
+    private static void checkId(int id) {
+        E.illegalArgumentIf(id < 0 || id >= SIZE, "key ID shall be between 0 and 255");
+    }
+}
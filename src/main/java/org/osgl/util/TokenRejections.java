@@ -0,0 +1,106 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts rejected tokens per source, e.g. per client IP, so that the
+ * application can see who is sending bad tokens and shape the traffic.
+ *
+ * At most {@link #MAX_SOURCES} sources are tracked. Rejections from
+ * sources beyond that are only counted in {@link #total()}, until
+ * {@link #reset()} is called.
+ */
+public final class TokenRejections {
+
+    /**
+     * The max number of sources tracked
+     */
+    public static final int MAX_SOURCES = 64 * 1024;
+
+    private final AtomicLong total = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    TokenRejections() {
+    }
+
+    /**
+     * Record a rejection
+     * @param source the source, could be `null`
+     */
+    void record(String source) {
+        total.incrementAndGet();
+        if (null == source) return;
+        AtomicLong counter = counters.get(source);
+        if (null == counter) {
+            if (counters.size() >= MAX_SOURCES) return;
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(source, newCounter);
+            if (null == counter) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of tokens rejected from the source
+     * @param source the source
+     * @return the rejection count
+     */
+    public long count(String source) {
+        AtomicLong counter = counters.get(source);
+        return null == counter ? 0 : counter.get();
+    }
+
+    /**
+     * Returns the number of tokens rejected from all sources
+     * @return the total rejection count
+     */
+    public long total() {
+        return total.get();
+    }
+
+    /**
+     * Returns a copy of the rejection counts of all tracked sources
+     * @return the rejection count by source
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> map = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    /**
+     * Clear all counters
+     */
+    public void reset() {
+        counters.clear();
+        total.set(0);
+    }
+}
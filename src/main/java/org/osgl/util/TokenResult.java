@@ -0,0 +1,137 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * The result of validating a token string, which tells why a token is
+ * rejected without any exception created along the way.
+ *
+ * Results of rejected tokens that carry no token are shared constants,
+ * so rejecting a token allocates nothing for the result.
+ */
+public final class TokenResult {
+
+    /**
+     * Why a token is accepted or rejected
+     */
+    public enum Reason {
+        /**
+         * The token is valid
+         */
+        OK,
+
+        /**
+         * The token is expired
+         */
+        EXPIRED,
+
+        /**
+         * The token is well formed but cannot be decrypted or authenticated
+         */
+        FORGED,
+
+        /**
+         * The token string or its plain text is not in any known format
+         */
+        MALFORMED,
+
+        /**
+         * The token has been consumed
+         */
+        CONSUMED,
+
+        /**
+         * The token has been revoked, see {@link RevocationStore}
+         */
+        REVOKED
+    }
+
+    static final TokenResult FORGED = new TokenResult(Reason.FORGED, null);
+    static final TokenResult MALFORMED = new TokenResult(Reason.MALFORMED, null);
+
+    private final Reason reason;
+    private final Token token;
+
+    private TokenResult(Reason reason, Token token) {
+        this.reason = reason;
+        this.token = token;
+    }
+
+    /**
+     * Returns the result of a parsed token, which is either {@link Reason#OK},
+     * {@link Reason#EXPIRED} or {@link Reason#MALFORMED} if the plain
+     * text carries no ID
+     */
+    static TokenResult of(Token token) {
+        if (token.expired()) {
+            return new TokenResult(Reason.EXPIRED, token);
+        }
+        return token.isEmpty() ? MALFORMED : new TokenResult(Reason.OK, token);
+    }
+
+    /**
+     * Returns a result of the reason with the token
+     */
+    static TokenResult of(Reason reason, Token token) {
+        return new TokenResult(reason, token);
+    }
+
+    /**
+     * Returns the reason
+     * @return the reason
+     */
+    public Reason reason() {
+        return reason;
+    }
+
+    /**
+     * Check if the token is valid
+     * @return `true` if the reason is {@link Reason#OK}
+     */
+    public boolean isOk() {
+        return Reason.OK == reason;
+    }
+
+    /**
+     * Returns the token.
+     *
+     * Note it is `null` if the token is {@link Reason#FORGED forged} or
+     * {@link Reason#MALFORMED malformed}. An {@link Reason#EXPIRED expired}
+     * token might have no ID if it is rejected before being authenticated.
+     *
+     * @return the token or `null`
+     */
+    public Token token() {
+        return token;
+    }
+
+    /*
+     * Forged and malformed tokens never become valid
+     */
+    boolean isPermanent() {
+        return Reason.FORGED == reason || Reason.MALFORMED == reason;
+    }
+
+    @Override
+    public String toString() {
+        return null == token ? reason.name() : S.fmt("%s %s", reason, token);
+    }
+}
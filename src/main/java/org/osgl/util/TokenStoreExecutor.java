@@ -0,0 +1,71 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The bounded executor that runs blocking {@link ConsumedTokenStore}
+ * calls off the calling thread.
+ *
+ * The pool is created on first use. Threads are daemon and time out
+ * when idle. When the work queue is full the task is rejected with a
+ * {@link RejectedExecutionException} instead of queueing unbounded work.
+ * It is never run on the calling thread, which might be an event loop
+ * thread that must not block.
+ */
+final class TokenStoreExecutor {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private TokenStoreExecutor() {
+    }
+
+    static ExecutorService get() {
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        static final ExecutorService INSTANCE = create();
+    }
+
+    private static ExecutorService create() {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        final AtomicInteger seq = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "token-store-" + seq.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,272 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.osgl.$;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A write behind {@link ConsumedTokenStore}.
+ *
+ * {@link #consume(Token)} records the token in a local authoritative
+ * {@link InMemoryConsumedTokenStore} right away and queues the write to
+ * the backing store. A background flusher writes queued tokens to the
+ * backing store in batches of up to `maxBatch` tokens or after `maxDelay`
+ * milliseconds, whichever comes first. A batch is written with one call
+ * if the backing store is a {@link BulkConsumedTokenStore}. Request
+ * latency thus no longer depends on the write latency of the backing
+ * store.
+ *
+ * Backpressure: when the queue is full the write is done by the calling
+ * thread synchronously, which slows down producers to the speed of the
+ * backing store without losing any token.
+ *
+ * Shutdown: {@link #close()} stops the flusher after it has written all
+ * queued tokens. Tokens consumed after closing are written synchronously,
+ * including those racing with {@link #close()}.
+ */
+public class WriteBehindConsumedTokenStore implements BulkConsumedTokenStore, Closeable {
+
+    /**
+     * The default queue capacity
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64 * 1024;
+
+    /**
+     * The default max number of tokens written in one batch
+     */
+    public static final int DEFAULT_MAX_BATCH = 512;
+
+    /**
+     * The default max delay in milliseconds before a queued token is written
+     */
+    public static final long DEFAULT_MAX_DELAY = 200;
+
+    private final ConsumedTokenStore store;
+    private final InMemoryConsumedTokenStore local = new InMemoryConsumedTokenStore();
+    private final BlockingQueue<Token> queue;
+    private final int maxBatch;
+    private final long maxDelay;
+    private final Thread flusher;
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Construct a store with default settings
+     * @param store the backing store
+     */
+    public WriteBehindConsumedTokenStore(ConsumedTokenStore store) {
+        this(store, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * Construct a store
+     * @param store the backing store
+     * @param queueCapacity the max number of tokens waiting to be written
+     * @param maxBatch the max number of tokens written in one batch
+     * @param maxDelay the max delay in milliseconds before a queued token is written
+     */
+    public WriteBehindConsumedTokenStore(ConsumedTokenStore store, int queueCapacity, int maxBatch, long maxDelay) {
+        E.illegalArgumentIf(queueCapacity < 1, "queue capacity shall be positive");
+        E.illegalArgumentIf(maxBatch < 1, "max batch shall be positive");
+        E.illegalArgumentIf(maxDelay < 1, "max delay shall be positive");
+        this.store = $.requireNotNull(store);
+        this.queue = new ArrayBlockingQueue<Token>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.maxDelay = maxDelay;
+        this.flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        }, "token-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public boolean consumed(Token token) {
+        return local.consumed(token) || store.consumed(token);
+    }
+
+    @Override
+    public boolean[] consumed(List<Token> tokens) {
+        int n = tokens.size();
+        boolean[] result = new boolean[n];
+        int[] pos = new int[n];
+        List<Token> rest = new ArrayList<Token>();
+        for (int i = 0; i < n; ++i) {
+            Token token = tokens.get(i);
+            if (local.consumed(token)) {
+                result[i] = true;
+            } else {
+                pos[rest.size()] = i;
+                rest.add(token);
+            }
+        }
+        if (!rest.isEmpty()) {
+            boolean[] ba = Token.consumed(store, rest);
+            for (int i = 0; i < ba.length; ++i) {
+                result[pos[i]] = ba[i];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void consume(List<Token> tokens) {
+        for (Token token : tokens) {
+            consume(token);
+        }
+    }
+
+    @Override
+    public void consume(Token token) {
+        if (local.tryConsume(token)) {
+            enqueue(token);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The local set, which has the tokens queued and recently consumed
+     * through this store, is checked first and arbitrates concurrent
+     * callers within this JVM. Only on a miss is the backing store checked
+     * for tokens consumed elsewhere, and such a token is recorded in the
+     * local set, so a replay does not go to the backing store again.
+     */
+    @Override
+    public boolean tryConsume(Token token) {
+        if (local.consumed(token)) {
+            return false;
+        }
+        if (store.consumed(token)) {
+            local.consume(token);
+            return false;
+        }
+        if (!local.tryConsume(token)) {
+            return false;
+        }
+        enqueue(token);
+        return true;
+    }
+
+    /**
+     * Returns the number of tokens failed to be written to the backing store
+     * @return the number of failures
+     */
+    public long failures() {
+        return failures.get();
+    }
+
+    /**
+     * Returns the number of tokens waiting to be written
+     * @return the queue size
+     */
+    public int pending() {
+        return queue.size();
+    }
+
+    /**
+     * Stop the flusher after all queued tokens are written
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // in case the flusher has been interrupted
+        drain();
+    }
+
+    private void enqueue(Token token) {
+        if (closed || !queue.offer(token)) {
+            write(token);
+        } else if (closed) {
+            // close() might have drained the queue before the offer landed
+            drain();
+        }
+    }
+
+    private void drain() {
+        List<Token> rest = new ArrayList<Token>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            write(rest);
+        }
+    }
+
+    private void flushLoop() {
+        List<Token> batch = new ArrayList<Token>(maxBatch);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Token first = queue.poll(maxDelay, TimeUnit.MILLISECONDS);
+                if (null == first) continue;
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + maxDelay;
+                while (batch.size() < maxBatch && !closed) {
+                    queue.drainTo(batch, maxBatch - batch.size());
+                    long wait = deadline - System.currentTimeMillis();
+                    if (batch.size() >= maxBatch || wait <= 0) break;
+                    Token next = queue.poll(wait, TimeUnit.MILLISECONDS);
+                    if (null == next) break;
+                    batch.add(next);
+                }
+                queue.drainTo(batch, maxBatch - batch.size());
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // close() writes what is left
+        }
+    }
+
+    private void write(List<Token> batch) {
+        try {
+            Token.consume(store, batch);
+        } catch (RuntimeException e) {
+            // find out the tokens failed
+            for (Token token : batch) {
+                write(token);
+            }
+        }
+    }
+
+    private void write(Token token) {
+        try {
+            store.consume(token);
+        } catch (RuntimeException e) {
+            // the token stays consumed in the local set
+            failures.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BloomFilterConsumedTokenStoreTest extends TestBase {
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.SIGNED).build();
+
+    private final ObservedStore backing = new ObservedStore();
+    private final BloomFilterConsumedTokenStore store = new BloomFilterConsumedTokenStore(
+            backing, Token.Life.ONE_MIN, 1000);
+
+    {
+        backing.outer = store;
+    }
+
+    @Test
+    public void testNotConsumedSkipsBackingStore() {
+        no(store.consumed(token("alice")));
+        eq(0, backing.lookups);
+        eq(Arrays.asList(false, false), toList(store.consumed(Arrays.asList(token("bob"), token("carol")))));
+        eq(0, backing.lookups);
+    }
+
+    @Test
+    public void testConsume() {
+        Token token = token("alice");
+        store.consume(token);
+        yes(store.consumed(token));
+        yes(store.tryConsume(token("bob")));
+        no(store.tryConsume(token("bob")));
+        store.consume(Arrays.asList(token("carol"), token("dave")));
+        eq(Arrays.asList(true, true, false),
+                toList(store.consumed(Arrays.asList(token("carol"), token("dave"), token("eve")))));
+    }
+
+    @Test
+    public void testFilterUpdatedBeforeBackingStore() {
+        store.consume(token("alice"));
+        store.tryConsume(token("bob"));
+        store.consume(Arrays.asList(token("carol"), token("dave")));
+        eq(4, backing.seenByOuter.size());
+        for (boolean b : backing.seenByOuter) {
+            yes(b, "consumed token missed while written to the backing store");
+        }
+    }
+
+    private Token token(String id) {
+        // due beyond the horizon from now, so the filter applies
+        return codec.parse(codec.generate0(System.currentTimeMillis() / 1000 * 1000 + 60 * 60 * 1000, id));
+    }
+
+    private static List<Boolean> toList(boolean[] ba) {
+        List<Boolean> list = new ArrayList<Boolean>();
+        for (boolean b : ba) {
+            list.add(b);
+        }
+        return list;
+    }
+
+    /*
+     * Records whether the outer store reports a token consumed at the
+     * time the backing store has it written
+     */
+    private static class ObservedStore implements BulkConsumedTokenStore {
+        final InMemoryConsumedTokenStore store = new InMemoryConsumedTokenStore();
+        final List<Boolean> seenByOuter = new ArrayList<Boolean>();
+        BloomFilterConsumedTokenStore outer;
+        int lookups;
+
+        @Override
+        public boolean consumed(Token token) {
+            lookups++;
+            return store.consumed(token);
+        }
+
+        @Override
+        public boolean[] consumed(List<Token> tokens) {
+            lookups += tokens.size();
+            return store.consumed(tokens);
+        }
+
+        @Override
+        public void consume(Token token) {
+            store.consume(token);
+            seenByOuter.add(outer.consumed(token));
+        }
+
+        @Override
+        public void consume(List<Token> tokens) {
+            store.consume(tokens);
+            for (Token token : tokens) {
+                seenByOuter.add(outer.consumed(token));
+            }
+        }
+
+        @Override
+        public boolean tryConsume(Token token) {
+            boolean consumed = store.tryConsume(token);
+            seenByOuter.add(outer.consumed(token));
+            return consumed;
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BulkConsumedTokenStoreTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    private final BulkStore bulk = new BulkStore();
+    private final SingleStore single = new SingleStore();
+    private final TokenCodec bulkCodec = TokenCodec.builder(SECRET)
+            .mode(TokenCodec.Mode.SIGNED).consumedTokenStore(bulk).build();
+    private final TokenCodec singleCodec = TokenCodec.builder(SECRET)
+            .mode(TokenCodec.Mode.AUTHENTICATED).consumedTokenStore(single).build();
+
+    @Test
+    public void testConsumed() {
+        List<Token> tokens = new ArrayList<Token>();
+        for (int i = 0; i < 100; ++i) {
+            TokenCodec codec = i % 2 == 0 ? bulkCodec : singleCodec;
+            Token token = codec.parse(codec.generate("u" + i));
+            if (i % 3 == 0) {
+                token.consume();
+            }
+            tokens.add(token);
+        }
+        bulk.lookups.set(0);
+        single.lookups.set(0);
+        boolean[] consumed = Token.consumed(tokens);
+        eq(tokens.size(), consumed.length);
+        for (int i = 0; i < consumed.length; ++i) {
+            eq(i % 3 == 0, consumed[i], "token %s", i);
+        }
+        // one call for the bulk store, single lookups for the other
+        eq(1, bulk.lookups.get());
+        eq(50, single.lookups.get());
+    }
+
+    @Test
+    public void testValidate() {
+        List<Token> tokens = new ArrayList<Token>();
+        tokens.add(bulkCodec.parse(bulkCodec.generate("alice")));
+        tokens.add(singleCodec.parse(singleCodec.generate("bob")));
+        Token consumed = bulkCodec.parse(bulkCodec.generate("carol"));
+        consumed.consume();
+        tokens.add(consumed);
+        tokens.add(bulkCodec.parse(bulkCodec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, "dave")));
+        tokens.add(bulkCodec.parse("garbage"));
+        boolean[] valid = Token.validate(tokens);
+        for (int i = 0; i < valid.length; ++i) {
+            eq(tokens.get(i).isValid(), valid[i], "token %s", i);
+        }
+        yes(valid[0] && valid[1]);
+        no(valid[2] || valid[3] || valid[4]);
+    }
+
+    private static class BulkStore implements BulkConsumedTokenStore {
+        final InMemoryConsumedTokenStore store = new InMemoryConsumedTokenStore();
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public boolean[] consumed(List<Token> tokens) {
+            lookups.incrementAndGet();
+            return store.consumed(tokens);
+        }
+
+        @Override
+        public void consume(List<Token> tokens) {
+            store.consume(tokens);
+        }
+
+        @Override
+        public boolean consumed(Token token) {
+            lookups.incrementAndGet();
+            return store.consumed(token);
+        }
+
+        @Override
+        public void consume(Token token) {
+            store.consume(token);
+        }
+
+        @Override
+        public boolean tryConsume(Token token) {
+            return store.tryConsume(token);
+        }
+    }
+
+    private static class SingleStore implements ConsumedTokenStore {
+        final Set<Token> consumed = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+        final AtomicInteger lookups = new AtomicInteger();
+
+        @Override
+        public boolean consumed(Token token) {
+            lookups.incrementAndGet();
+            return consumed.contains(token);
+        }
+
+        @Override
+        public void consume(Token token) {
+            consumed.add(token);
+        }
+
+        @Override
+        public boolean tryConsume(Token token) {
+            return consumed.add(token);
+        }
+    }
+
+}
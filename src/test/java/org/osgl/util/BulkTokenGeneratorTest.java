@@ -0,0 +1,86 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class BulkTokenGeneratorTest extends TestBase {
+
+    @Test
+    public void testGenerate() {
+        for (TokenCodec.Mode mode : TokenCodec.Mode.values()) {
+            TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes()).mode(mode).build();
+            BulkTokenGenerator generator = new BulkTokenGenerator(codec, new ForkJoinPool(3), 100);
+            List<BulkTokenGenerator.Entry> entries = new ArrayList<BulkTokenGenerator.Entry>();
+            for (int i = 0; i < 1000; ++i) {
+                entries.add(new BulkTokenGenerator.Entry("u" + i, "p" + i));
+            }
+            List<String> tokens = generator.generate(Token.Life.ONE_DAY, entries);
+            eq(entries.size(), tokens.size());
+            long due = codec.parse(tokens.get(0)).due();
+            for (int i = 0; i < tokens.size(); ++i) {
+                Token token = codec.parse(tokens.get(i));
+                yes(token.isValid(), "%s: token %s", mode, i);
+                eq("u" + i, token.id());
+                eq(Arrays.asList("p" + i), token.payload());
+                // all tokens of one call share the due
+                eq(due, token.due());
+            }
+        }
+    }
+
+    @Test
+    public void testSinkOrder() {
+        TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes()).mode(TokenCodec.Mode.SIGNED).build();
+        BulkTokenGenerator generator = new BulkTokenGenerator(codec, new ForkJoinPool(2), 7);
+        List<BulkTokenGenerator.Entry> entries = new ArrayList<BulkTokenGenerator.Entry>();
+        for (int i = 0; i < 50; ++i) {
+            entries.add(new BulkTokenGenerator.Entry("u" + i));
+        }
+        final List<BulkTokenGenerator.Entry> emitted = new ArrayList<BulkTokenGenerator.Entry>();
+        final List<String> tokens = new ArrayList<String>();
+        generator.generate(Token.Life.ONE_HOUR, entries, new BulkTokenGenerator.Sink() {
+            @Override
+            public void accept(BulkTokenGenerator.Entry entry, String token) {
+                emitted.add(entry);
+                tokens.add(token);
+            }
+        });
+        eq(entries, emitted);
+        for (int i = 0; i < tokens.size(); ++i) {
+            yes(codec.isValid("u" + i, tokens.get(i)));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        TokenCodec codec = new TokenCodec("0123456789abcdef".getBytes());
+        yes(new BulkTokenGenerator(codec).generate(Token.Life.ONE_DAY,
+                new ArrayList<BulkTokenGenerator.Entry>()).isEmpty());
+    }
+
+}
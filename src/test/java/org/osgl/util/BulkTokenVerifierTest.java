@@ -0,0 +1,126 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class BulkTokenVerifierTest extends TestBase {
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.AUTHENTICATED)
+            .consumedTokenStore(new InMemoryConsumedTokenStore())
+            .build();
+
+    private final BulkTokenVerifier verifier = new BulkTokenVerifier(codec, new ForkJoinPool(2), 100);
+
+    @Test
+    public void testVerify() {
+        List<String> tokens = new ArrayList<String>();
+        List<BulkTokenVerifier.Status> expected = new ArrayList<BulkTokenVerifier.Status>();
+        for (int i = 0; i < 1000; ++i) {
+            String id = "u" + i;
+            switch (i % 5) {
+                case 0:
+                    tokens.add(codec.generate(id));
+                    expected.add(BulkTokenVerifier.Status.VALID);
+                    break;
+                case 1:
+                    tokens.add("garbage" + i);
+                    expected.add(BulkTokenVerifier.Status.MALFORMED);
+                    break;
+                case 2:
+                    tokens.add(forge(codec.generate(id)));
+                    expected.add(BulkTokenVerifier.Status.FORGED);
+                    break;
+                case 3:
+                    String token = codec.generate(id);
+                    codec.parse(token).consume();
+                    tokens.add(token);
+                    expected.add(BulkTokenVerifier.Status.CONSUMED);
+                    break;
+                default:
+                    tokens.add(codec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, id));
+                    expected.add(BulkTokenVerifier.Status.EXPIRED);
+            }
+        }
+        List<BulkTokenVerifier.Result> results = verifier.verify(tokens);
+        eq(tokens.size(), results.size());
+        for (int i = 0; i < results.size(); ++i) {
+            BulkTokenVerifier.Result result = results.get(i);
+            eq(expected.get(i), result.status(), "token %s", i);
+            if (result.isValid() || BulkTokenVerifier.Status.CONSUMED == result.status()) {
+                eq("u" + i, result.id());
+            }
+        }
+    }
+
+    @Test
+    public void testConsistentWithValidate() {
+        List<String> tokens = new ArrayList<String>();
+        tokens.add(codec.generate("alice"));
+        tokens.add("");
+        tokens.add("Tabc");
+        tokens.add("Sabc");
+        tokens.add(forge(codec.generate("bob")));
+        tokens.add(codec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, "carol"));
+        List<BulkTokenVerifier.Result> results = verifier.verify(tokens);
+        for (int i = 0; i < tokens.size(); ++i) {
+            TokenResult.Reason reason = codec.validate(tokens.get(i)).reason();
+            String expected = TokenResult.Reason.OK == reason ? "VALID" : reason.name();
+            eq(expected, results.get(i).status().name(), "token %s", tokens.get(i));
+        }
+    }
+
+    @Test
+    public void testRevoked() {
+        TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+                .mode(TokenCodec.Mode.SIGNED)
+                .revocationStore(new CacheRevocationStore(CacheServiceProvider.Impl.Simple.get("verifier-test")))
+                .build();
+        String token = codec.generate("alice");
+        codec.revoke("alice");
+        List<String> tokens = new ArrayList<String>();
+        tokens.add(token);
+        tokens.add(codec.generate("alice"));
+        Iterator<BulkTokenVerifier.Result> itr = new BulkTokenVerifier(codec).verify(tokens.iterator());
+        eq(BulkTokenVerifier.Status.REVOKED, itr.next().status());
+        eq(BulkTokenVerifier.Status.VALID, itr.next().status());
+        no(itr.hasNext());
+    }
+
+    /*
+     * Modify the tag of the token
+     */
+    private static String forge(String token) {
+        char[] ca = token.toCharArray();
+        int i = ca.length - 5;
+        ca[i] = ca[i] == 'A' ? 'B' : 'A';
+        return new String(ca);
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Before;
+import org.junit.Test;
+import org.osgl.cache.CacheService;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CacheConsumedTokenStoreTest extends TestBase {
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.SIGNED).build();
+
+    private final List<String> calls = new ArrayList<String>();
+    private final List<Integer> ttls = new ArrayList<Integer>();
+    private final CacheService cache = recording(CacheServiceProvider.Impl.Simple.get("consumed-test"));
+
+    @Before
+    public void clearCache() {
+        cache.clear();
+        calls.clear();
+        ttls.clear();
+    }
+
+    @Test
+    public void testTryConsume() {
+        CacheConsumedTokenStore store = new CacheConsumedTokenStore(cache);
+        Token token = codec.parse(codec.generate("alice"));
+        no(store.consumed(token));
+        yes(store.tryConsume(token));
+        yes(store.consumed(token));
+        no(store.tryConsume(token));
+        no(store.tryConsume(codec.parse(codec.generate0(token.due(), "alice"))));
+        yes(store.tryConsume(codec.parse(codec.generate("bob"))));
+    }
+
+    @Test
+    public void testTryConsumeRoundTrips() {
+        CacheConsumedTokenStore store = new CacheConsumedTokenStore(cache);
+        Token token = codec.parse(codec.generate("alice"));
+        calls.clear();
+        yes(store.tryConsume(token));
+        eq("[get, put]", calls.toString());
+        calls.clear();
+        no(store.tryConsume(token));
+        eq("[get]", calls.toString());
+    }
+
+    @Test
+    public void testLegacyKey() {
+        Token token = codec.parse(codec.generate("alice"));
+        cache.put("auth-tk-consumed-" + token.id() + token.due(), "true");
+        no(new CacheConsumedTokenStore(cache).consumed(token));
+        CacheConsumedTokenStore store = new CacheConsumedTokenStore(cache, true);
+        yes(store.consumed(token));
+        no(store.tryConsume(token));
+    }
+
+    @Test
+    public void testTtl() {
+        CacheConsumedTokenStore store = new CacheConsumedTokenStore(cache);
+        store.consume(codec.parse(codec.generate(Token.Life.THIRTY_DAYS, "alice")));
+        long seconds = Token.Life.THIRTY_DAYS.seconds();
+        yes(ttls.get(0) >= seconds - 1 && ttls.get(0) <= seconds + 1, "ttl: %s", ttls.get(0));
+        store.consume(codec.parse(codec.generate(Token.Life.ONE_MIN, "alice")));
+        yes(ttls.get(1) >= 59 && ttls.get(1) <= 61);
+        store.consume(codec.parse(codec.generate0(System.currentTimeMillis() + 10, "alice")));
+        eq(1, ttls.get(2));
+    }
+
+    private CacheService recording(final CacheService cache) {
+        return (CacheService) Proxy.newProxyInstance(CacheService.class.getClassLoader(),
+                new Class[]{CacheService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        calls.add(method.getName());
+                        if ("put".equals(method.getName()) && args.length == 3) {
+                            ttls.add((Integer) args[2]);
+                        }
+                        try {
+                            return method.invoke(cache, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+}
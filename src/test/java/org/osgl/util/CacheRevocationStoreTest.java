@@ -0,0 +1,54 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.osgl.cache.CacheService;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+public class CacheRevocationStoreTest extends TestBase {
+
+    private final CacheService cache = CacheServiceProvider.Impl.Simple.get("revocation-test");
+    private final CacheRevocationStore store = new CacheRevocationStore(cache);
+
+    @Test
+    public void testRevoke() {
+        eq(0L, store.generation("alice"));
+        long g1 = store.revoke("alice");
+        yes(g1 > 0);
+        eq(g1, store.generation("alice"));
+        long g2 = store.revoke("alice");
+        yes(g2 > g1);
+        eq(0L, store.generation("bob"));
+    }
+
+    @Test
+    public void testMonotonicAfterEviction() {
+        long g1 = store.revoke("carol");
+        long g2 = store.revoke("carol");
+        cache.evict("auth-tk-gen-carol");
+        eq(0L, store.generation("carol"));
+        yes(store.revoke("carol") > g2);
+        yes(g2 > g1);
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InMemoryConsumedTokenStoreTest extends TestBase {
+
+    private static final int THREADS = 8;
+    private static final int TOKENS = 200;
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.SIGNED).build();
+
+    @Test
+    public void testTryConsume() {
+        InMemoryConsumedTokenStore store = new InMemoryConsumedTokenStore();
+        Token token = codec.parse(codec.generate("alice"));
+        no(store.consumed(token));
+        yes(store.tryConsume(token));
+        yes(store.consumed(token));
+        no(store.tryConsume(token));
+        yes(store.tryConsume(codec.parse(codec.generate("alice", "x"))));
+    }
+
+    @Test
+    public void testTryConsumeExactlyOnce() throws Exception {
+        // small initial capacity to force rehash during the race
+        final InMemoryConsumedTokenStore store = new InMemoryConsumedTokenStore(
+                InMemoryConsumedTokenStore.DEFAULT_BUCKET_MILLIS, 4);
+        final String[] tokens = new String[TOKENS];
+        for (int i = 0; i < TOKENS; ++i) {
+            tokens[i] = codec.generate("u" + i);
+        }
+        final AtomicInteger[] wins = new AtomicInteger[TOKENS];
+        for (int i = 0; i < TOKENS; ++i) {
+            wins[i] = new AtomicInteger();
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int t = 0; t < THREADS; ++t) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < TOKENS; ++i) {
+                            // each thread parses its own copy of the token
+                            if (store.tryConsume(codec.parse(tokens[i]))) {
+                                wins[i].incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        start.countDown();
+        done.await();
+        eq(0, errors.get());
+        for (int i = 0; i < TOKENS; ++i) {
+            eq(1, wins[i].get(), "token %s consumed %s times", i, wins[i].get());
+            yes(store.consumed(codec.parse(tokens[i])));
+        }
+        // size is approximate when tokens are consumed during a resize
+        yes(store.size() >= TOKENS);
+    }
+
+}
@@ -0,0 +1,144 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import osgl.ut.TestBase;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+public class JournalConsumedTokenStoreTest extends TestBase {
+
+    private static final long WINDOW = InMemoryConsumedTokenStore.DEFAULT_BUCKET_MILLIS;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.SIGNED).build();
+
+    @Test
+    public void testReload() throws Exception {
+        File dir = folder.newFolder();
+        JournalConsumedTokenStore store = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        String[] tokens = new String[10];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = codec.generate(Token.Life.ONE_DAY, "u" + i);
+            yes(store.tryConsume(codec.parse(tokens[i])));
+        }
+        String forever = codec.generate(Token.Life.FOREVER, "forever");
+        store.consume(codec.parse(forever));
+        store.flush();
+
+        JournalConsumedTokenStore reloaded = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        for (String token : tokens) {
+            yes(reloaded.consumed(codec.parse(token)));
+            no(reloaded.tryConsume(codec.parse(token)));
+        }
+        yes(reloaded.consumed(codec.parse(forever)));
+        no(reloaded.consumed(codec.parse(codec.generate("fresh"))));
+    }
+
+    @Test
+    public void testReloadSkipsHoles() throws Exception {
+        File dir = folder.newFolder();
+        JournalConsumedTokenStore store = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        long due = System.currentTimeMillis() + WINDOW * 2;
+        String[] tokens = new String[3];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = codec.generate0(due, "u" + i);
+            yes(store.tryConsume(codec.parse(tokens[i])));
+        }
+        store.flush();
+
+        // simulate a crash between claiming the first slot and writing it
+        File[] segments = dir.listFiles();
+        eq(1, segments.length);
+        RandomAccessFile raf = new RandomAccessFile(segments[0], "rw");
+        try {
+            // skip the header
+            raf.seek(16);
+            raf.write(new byte[16]);
+        } finally {
+            raf.close();
+        }
+
+        JournalConsumedTokenStore reloaded = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        no(reloaded.consumed(codec.parse(tokens[0])));
+        yes(reloaded.consumed(codec.parse(tokens[1])));
+        yes(reloaded.consumed(codec.parse(tokens[2])));
+
+        // new entries are appended after the last entry found
+        String token = codec.generate0(due, "u3");
+        yes(reloaded.tryConsume(codec.parse(token)));
+        reloaded.flush();
+        JournalConsumedTokenStore reloaded2 = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        yes(reloaded2.consumed(codec.parse(tokens[1])));
+        yes(reloaded2.consumed(codec.parse(tokens[2])));
+        yes(reloaded2.consumed(codec.parse(token)));
+    }
+
+    @Test
+    public void testReopenWithAnotherWindowSpan() throws Exception {
+        File dir = folder.newFolder();
+        JournalConsumedTokenStore store = new JournalConsumedTokenStore(dir, WINDOW, 4);
+        store.consume(codec.parse(codec.generate("alice")));
+        store.close();
+        try {
+            new JournalConsumedTokenStore(dir, WINDOW / 2, 4);
+            fail("reopened with another window span");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReopenWithSmallerSegments() throws Exception {
+        File dir = folder.newFolder();
+        JournalConsumedTokenStore store = new JournalConsumedTokenStore(dir, WINDOW, 8);
+        long due = System.currentTimeMillis() + WINDOW * 2;
+        String[] tokens = new String[6];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = codec.generate0(due, "u" + i);
+            store.consume(codec.parse(tokens[i]));
+        }
+        store.close();
+        JournalConsumedTokenStore reloaded = new JournalConsumedTokenStore(dir, WINDOW, 2);
+        for (String token : tokens) {
+            yes(reloaded.consumed(codec.parse(token)));
+        }
+        String token = codec.generate0(due, "u6");
+        yes(reloaded.tryConsume(codec.parse(token)));
+        reloaded.close();
+        yes(new JournalConsumedTokenStore(dir, WINDOW, 2).consumed(codec.parse(token)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws Exception {
+        JournalConsumedTokenStore store = new JournalConsumedTokenStore(folder.newFolder(), WINDOW, 4);
+        store.close();
+        store.tryConsume(codec.parse(codec.generate("alice")));
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.osgl.cache.CacheService;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+public class ParsedTokenCacheTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    private final CacheService cache = CacheServiceProvider.Impl.Simple.get("parsed-token-cache-test");
+
+    @Before
+    public void clearCache() {
+        cache.clear();
+    }
+
+    @After
+    public void restore() {
+        TokenClock.set(null);
+    }
+
+    @Test
+    public void testCachedResult() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.AUTHENTICATED)
+                .parsedTokenCache(100, 60 * 1000).build();
+        String s = codec.generate("alice", "x");
+        TokenResult r = codec.result(s);
+        yes(r.isOk());
+        yes(r == codec.result(s));
+        eq("alice", codec.parse(s).id());
+        // garbage is cached as well
+        TokenResult garbage = codec.result("garbage");
+        no(garbage.isOk());
+        yes(garbage == codec.result("garbage"));
+    }
+
+    @Test
+    public void testTtl() {
+        long now = 1000L * 1000 * 1000;
+        TokenClock.set(TokenClock.fixed(now));
+        ParsedTokenCache cache = new ParsedTokenCache(100, 1000);
+        cache.put("garbage", TokenResult.MALFORMED);
+        eq(TokenResult.MALFORMED, cache.get("garbage"));
+        TokenClock.set(TokenClock.fixed(now + 999));
+        eq(TokenResult.MALFORMED, cache.get("garbage"));
+        TokenClock.set(TokenClock.fixed(now + 1000));
+        isNull(cache.get("garbage"));
+    }
+
+    @Test
+    public void testNotBeyondDue() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        // the due is stored in whole seconds
+        long due = (System.currentTimeMillis() / 1000 + 10) * 1000;
+        String s = codec.generate0(due, "alice");
+        TokenClock.set(TokenClock.fixed(due - 5000));
+        ParsedTokenCache cache = new ParsedTokenCache(100, 60 * 1000);
+        cache.put(s, codec.result(s));
+        notNull(cache.get(s));
+        TokenClock.set(TokenClock.fixed(due - 1));
+        notNull(cache.get(s));
+        TokenClock.set(TokenClock.fixed(due));
+        isNull(cache.get(s));
+    }
+
+    @Test
+    public void testExpiredThroughCodec() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .parsedTokenCache(100, 60 * 60 * 1000).build();
+        long due = (System.currentTimeMillis() / 1000 + 10) * 1000;
+        String s = codec.generate0(due, "alice");
+        yes(codec.isValid("alice", s));
+        yes(codec.validate(s).isOk());
+        TokenClock.set(TokenClock.fixed(due));
+        no(codec.isValid("alice", s));
+        eq(TokenResult.Reason.EXPIRED, codec.validate(s).reason());
+    }
+
+    @Test
+    public void testConsumedAndRevokedStillChecked() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .parsedTokenCache(100, 60 * 60 * 1000)
+                .consumedTokenStore(new InMemoryConsumedTokenStore())
+                .revocationStore(new CacheRevocationStore(cache)).build();
+        String s = codec.generate("alice");
+        yes(codec.validate(s).isOk());
+        codec.parse(s).consume();
+        eq(TokenResult.Reason.CONSUMED, codec.validate(s).reason());
+
+        String t = codec.generate("bob");
+        yes(codec.isValid("bob", t));
+        yes(codec.validate(t).isOk());
+        codec.revoke("bob");
+        no(codec.isValid("bob", t));
+        eq(TokenResult.Reason.REVOKED, codec.validate(t).reason());
+    }
+
+    @Test
+    public void testWrongId() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .parsedTokenCache(100, 60 * 60 * 1000).build();
+        String s = codec.generate("alice");
+        yes(codec.validate(s).isOk());
+        no(codec.isValid("bob", s));
+        yes(codec.isValid("alice", s));
+    }
+
+}
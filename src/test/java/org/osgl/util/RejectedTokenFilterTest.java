@@ -0,0 +1,139 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.Map;
+
+public class RejectedTokenFilterTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    @Test
+    public void testFilter() {
+        // one filter per entry, as two entries might share a slot
+        RejectedTokenFilter filter = new RejectedTokenFilter(16);
+        isNull(filter.get("garbage"));
+        no(filter.contains("garbage"));
+        filter.add("garbage", TokenResult.MALFORMED);
+        eq(TokenResult.MALFORMED, filter.get("garbage"));
+        yes(filter.contains("garbage"));
+        no(filter.contains("garbag"));
+
+        filter = new RejectedTokenFilter(16);
+        filter.add("forged", TokenResult.FORGED);
+        eq(TokenResult.FORGED, filter.get("forged"));
+        filter.add("forged", TokenResult.MALFORMED);
+        eq(TokenResult.MALFORMED, filter.get("forged"));
+    }
+
+    @Test
+    public void testBounded() {
+        RejectedTokenFilter filter = new RejectedTokenFilter(16);
+        for (int i = 0; i < 1000; ++i) {
+            filter.add("garbage" + i, TokenResult.FORGED);
+        }
+        int found = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (filter.contains("garbage" + i)) {
+                found++;
+            }
+        }
+        yes(found > 0 && found <= 16, "found %s", found);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityMustBePositive() {
+        new RejectedTokenFilter(0);
+    }
+
+    @Test
+    public void testCodec() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        verifyRejections(codec);
+    }
+
+    @Test
+    public void testCodecWithoutCache() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .rejectedTokenCache(0).build();
+        verifyRejections(codec);
+    }
+
+    private void verifyRejections(TokenCodec codec) {
+        String forged = forge(codec.generate("alice"));
+        for (int i = 0; i < 3; ++i) {
+            eq(TokenResult.Reason.MALFORMED, codec.validate("garbage").reason());
+            eq(TokenResult.Reason.FORGED, codec.validate(forged).reason());
+            no(codec.isValid("alice", forged));
+            no(codec.parse(forged).isValid());
+        }
+        // valid tokens are never taken for rejected ones
+        for (int i = 0; i < 100; ++i) {
+            String s = codec.generate("u" + i);
+            yes(codec.validate(s).isOk());
+            yes(codec.isValid("u" + i, s));
+        }
+    }
+
+    @Test
+    public void testRejections() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        String valid = codec.generate("alice");
+        String forged = forge(valid);
+        TokenRejections rejections = codec.rejections();
+
+        codec.validate(valid, "10.0.0.1");
+        yes(codec.isValid("alice", valid, "10.0.0.1"));
+        eq(0L, rejections.total());
+
+        codec.validate("garbage", "10.0.0.1");
+        codec.validate(forged, "10.0.0.1");
+        no(codec.isValid("alice", forged, "10.0.0.2"));
+        no(codec.isValid("bob", valid, "10.0.0.2"));
+        codec.validate("garbage");
+        eq(2L, rejections.count("10.0.0.1"));
+        eq(2L, rejections.count("10.0.0.2"));
+        eq(0L, rejections.count("10.0.0.3"));
+        eq(5L, rejections.total());
+
+        Map<String, Long> snapshot = rejections.snapshot();
+        eq(2, snapshot.size());
+        eq(2L, snapshot.get("10.0.0.1"));
+
+        rejections.reset();
+        eq(0L, rejections.total());
+        eq(0L, rejections.count("10.0.0.1"));
+        yes(rejections.snapshot().isEmpty());
+    }
+
+    private static String forge(String token) {
+        // flip a char inside the tag, the low bits of the last char
+        // might be padding that is dropped on decoding
+        char[] chars = token.toCharArray();
+        int i = chars.length - 10;
+        chars[i] = chars[i] == '0' ? '1' : '0';
+        return new String(chars);
+    }
+
+}
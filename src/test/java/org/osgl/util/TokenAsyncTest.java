@@ -0,0 +1,248 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class TokenAsyncTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    @Test
+    public void testAsyncStore() throws Exception {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .consumedTokenStore(new InMemoryConsumedTokenStore()).build();
+        Token token = codec.parse(codec.generate("alice"));
+        yes(token.isValidAsync().get());
+        yes(token.tryConsumeAsync().get());
+        no(token.tryConsumeAsync().get());
+        no(token.isValidAsync().get());
+        Token other = codec.parse(codec.generate("bob"));
+        other.consumeAsync().get();
+        no(other.isValidAsync().get());
+    }
+
+    @Test
+    public void testBlockingStore() throws Exception {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .consumedTokenStore(new BlockingStore(null)).build();
+        Token token = codec.parse(codec.generate("alice"));
+        yes(token.isValidAsync().get(10, TimeUnit.SECONDS));
+        yes(token.tryConsumeAsync().get(10, TimeUnit.SECONDS));
+        no(token.tryConsumeAsync().get(10, TimeUnit.SECONDS));
+        no(token.isValidAsync().get(10, TimeUnit.SECONDS));
+        Token other = codec.parse(codec.generate("bob"));
+        other.consumeAsync().get(10, TimeUnit.SECONDS);
+        no(other.isValidAsync().get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testTryConsumeExactlyOnce() throws Exception {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .consumedTokenStore(new BlockingStore(null)).build();
+        String s = codec.generate("alice");
+        List<TokenFuture<Boolean>> futures = new ArrayList<TokenFuture<Boolean>>();
+        for (int i = 0; i < 32; ++i) {
+            futures.add(codec.parse(s).tryConsumeAsync());
+        }
+        int consumed = 0;
+        for (TokenFuture<Boolean> future : futures) {
+            if (future.get(10, TimeUnit.SECONDS)) {
+                consumed++;
+            }
+        }
+        eq(1, consumed);
+    }
+
+    @Test
+    public void testRejectedOnCallingThread() throws Exception {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        Token expired = codec.parse(codec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, "alice"));
+        TokenFuture<Boolean> future = expired.isValidAsync();
+        yes(future.isDone());
+        no(future.get());
+        future = codec.parse("garbage").tryConsumeAsync();
+        yes(future.isDone());
+        no(future.get());
+    }
+
+    @Test
+    public void testExecutorSaturated() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .consumedTokenStore(new BlockingStore(release)).build();
+        Token token = codec.parse(codec.generate("alice"));
+        List<TokenFuture<Boolean>> futures = new ArrayList<TokenFuture<Boolean>>();
+        TokenFuture<Boolean> rejected = null;
+        try {
+            // pool threads plus the 1024 slots of the queue
+            for (int i = 0; i < 100000 && null == rejected; ++i) {
+                TokenFuture<Boolean> future = token.isValidAsync();
+                if (future.isDone()) {
+                    rejected = future;
+                } else {
+                    futures.add(future);
+                }
+            }
+        } finally {
+            release.countDown();
+        }
+        notNull(rejected);
+        try {
+            rejected.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            yes(e.getCause() instanceof RejectedExecutionException);
+        }
+        for (TokenFuture<Boolean> future : futures) {
+            yes(future.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testFutureCallbacks() throws Exception {
+        final AtomicReference<Object> seen = new AtomicReference<Object>();
+        TokenFuture<String> future = new TokenFuture<String>();
+        future.onComplete(new Recorder(seen));
+        no(future.isDone());
+        yes(future.complete("done"));
+        no(future.complete("again"));
+        no(future.fail(new RuntimeException()));
+        eq("done", seen.get());
+        eq("done", future.get());
+
+        // registered after completion: called on this thread
+        seen.set(null);
+        TokenFuture.completed("now").onComplete(new Recorder(seen));
+        eq("now", seen.get());
+    }
+
+    @Test
+    public void testFutureFailure() throws Exception {
+        final AtomicReference<Object> seen = new AtomicReference<Object>();
+        TokenFuture<String> future = new TokenFuture<String>();
+        future.onComplete(new Recorder(seen));
+        IllegalStateException cause = new IllegalStateException();
+        yes(future.fail(cause));
+        no(future.complete("late"));
+        yes(future.isDone());
+        no(future.isCancelled());
+        eq(cause, seen.get());
+        try {
+            future.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            eq(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void testFutureCancelAndTimeout() throws Exception {
+        TokenFuture<String> future = new TokenFuture<String>();
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail("expected TimeoutException");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        yes(future.cancel(true));
+        yes(future.isCancelled());
+        try {
+            future.get();
+            fail("expected CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    private static class Recorder implements TokenFuture.Callback<String> {
+        private final AtomicReference<Object> seen;
+
+        Recorder(AtomicReference<Object> seen) {
+            this.seen = seen;
+        }
+
+        @Override
+        public void completed(String result) {
+            seen.set(result);
+        }
+
+        @Override
+        public void failed(Throwable cause) {
+            seen.set(cause);
+        }
+    }
+
+    /*
+     * A store without async support, optionally blocking every lookup
+     * until the latch is released
+     */
+    private static class BlockingStore implements ConsumedTokenStore {
+        private final Set<Token> consumed = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+        private final CountDownLatch latch;
+
+        BlockingStore(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        @Override
+        public boolean consumed(Token token) {
+            await();
+            return consumed.contains(token);
+        }
+
+        @Override
+        public void consume(Token token) {
+            await();
+            consumed.add(token);
+        }
+
+        @Override
+        public boolean tryConsume(Token token) {
+            await();
+            return consumed.add(token);
+        }
+
+        private void await() {
+            if (null == latch) return;
+            try {
+                latch.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TokenBinaryFormatTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+    private static final long DAY = 24 * 60 * 60 * 1000;
+
+    @Test
+    public void testMatches() {
+        byte[] buf = "xaliceé".getBytes(Charsets.UTF_8);
+        yes(TokenBinaryFormat.matches("alice", buf, 1, 6));
+        no(TokenBinaryFormat.matches("alic", buf, 1, 6));
+        no(TokenBinaryFormat.matches("alicex", buf, 1, 6));
+        no(TokenBinaryFormat.matches("Alice", buf, 1, 6));
+        yes(TokenBinaryFormat.matches("aliceé", buf, 1, buf.length));
+        no(TokenBinaryFormat.matches("aliceè", buf, 1, buf.length));
+        no(TokenBinaryFormat.matches("aliceé", buf, 1, buf.length - 1));
+        yes(TokenBinaryFormat.matches("", buf, 1, 1));
+    }
+
+    @Test
+    public void testHeaderLen() {
+        long due = System.currentTimeMillis() + DAY;
+        for (String id : Arrays.asList("", "a", "alice", "用户-42", "😀")) {
+            byte[] header = TokenBinaryFormat.encode(id, due, Long.MAX_VALUE);
+            yes(header.length <= TokenBinaryFormat.headerLen(id), "id %s", id);
+        }
+    }
+
+    @Test
+    public void testIsValid() {
+        long due = System.currentTimeMillis() + DAY;
+        byte[] bytes = TokenBinaryFormat.encode("alice", due, "x", "y");
+        yes(TokenBinaryFormat.isValid("alice", bytes, null));
+        no(TokenBinaryFormat.isValid("alic", bytes, null));
+        no(TokenBinaryFormat.isValid("alicex", bytes, null));
+        no(TokenBinaryFormat.isValid("bob", bytes, null));
+
+        bytes = TokenBinaryFormat.encode("用户", -1);
+        yes(TokenBinaryFormat.isValid("用户", bytes, null));
+        no(TokenBinaryFormat.isValid("用", bytes, null));
+
+        bytes = TokenBinaryFormat.encode("alice", System.currentTimeMillis() - DAY);
+        no(TokenBinaryFormat.isValid("alice", bytes, null));
+    }
+
+    @Test
+    public void testIsValidIgnoresPayload() {
+        long due = System.currentTimeMillis() + DAY;
+        byte[] bytes = TokenBinaryFormat.encode("alice", due, "x", "y");
+        int header = TokenBinaryFormat.encode("alice", due).length;
+        // a truncated or malformed payload is never read
+        yes(TokenBinaryFormat.isValid("alice", Arrays.copyOf(bytes, header), null));
+        bytes[header] = (byte) 0xFF;
+        yes(TokenBinaryFormat.isValid("alice", bytes, null));
+        no(TokenBinaryFormat.decode(bytes).isValid());
+        // but a truncated ID is
+        no(TokenBinaryFormat.isValid("alice", Arrays.copyOf(bytes, header - 1), null));
+    }
+
+    @Test
+    public void testIsValidRevoked() {
+        Generations store = new Generations();
+        long due = System.currentTimeMillis() + DAY;
+        byte[] v1 = TokenBinaryFormat.encode("alice", due);
+        byte[] g1 = TokenBinaryFormat.encode("alice", due, 1);
+        yes(TokenBinaryFormat.isValid("alice", v1, store));
+        yes(TokenBinaryFormat.isValid("alice", g1, store));
+        store.revoke("alice");
+        no(TokenBinaryFormat.isValid("alice", v1, store));
+        yes(TokenBinaryFormat.isValid("alice", g1, store));
+        store.revoke("alice");
+        no(TokenBinaryFormat.isValid("alice", g1, store));
+    }
+
+    @Test
+    public void testCodecIsValid() {
+        for (TokenCodec.Mode mode : TokenCodec.Mode.values()) {
+            // the header of encrypted tokens is only read in binary format
+            TokenCodec codec = TokenCodec.builder(SECRET).mode(mode).format(TokenCodec.Format.BINARY)
+                    .revocationStore(new CacheRevocationStore(CacheServiceProvider.Impl.Simple.get("binary-format-test-" + mode)))
+                    .build();
+            char[] big = new char[4096];
+            Arrays.fill(big, 'p');
+            String valid = codec.generate("alice-" + mode, "x", new String(big));
+            yes(codec.isValid("alice-" + mode, valid), "%s", mode);
+            no(codec.isValid("alice", valid), "%s", mode);
+            no(codec.isValid("alice-" + mode + "x", valid), "%s", mode);
+            eq(codec.parse(valid).isValid(), codec.isValid("alice-" + mode, valid), "%s", mode);
+
+            String unicode = codec.generate("用户-" + mode);
+            yes(codec.isValid("用户-" + mode, unicode), "%s", mode);
+            no(codec.isValid("用户", unicode), "%s", mode);
+
+            String expired = codec.generate0(System.currentTimeMillis() - DAY, "alice-" + mode);
+            no(codec.isValid("alice-" + mode, expired), "%s", mode);
+
+            codec.revoke("alice-" + mode);
+            no(codec.isValid("alice-" + mode, valid), "%s", mode);
+            yes(codec.isValid("alice-" + mode, codec.generate("alice-" + mode)), "%s", mode);
+        }
+    }
+
+    private static class Generations implements RevocationStore {
+        private final Map<String, Long> generations = new HashMap<String, Long>();
+
+        @Override
+        public long generation(String id) {
+            Long l = generations.get(id);
+            return null == l ? 0 : l;
+        }
+
+        @Override
+        public long revoke(String id) {
+            long generation = generation(id) + 1;
+            generations.put(id, generation);
+            return generation;
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.After;
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+public class TokenClockTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    @After
+    public void restore() {
+        TokenClock.set(null);
+    }
+
+    @Test
+    public void testCoarseClockTicks() throws Exception {
+        TokenClock clock = TokenClock.get();
+        long start = clock.now();
+        yes(Math.abs(System.currentTimeMillis() - start) <= 10 * TokenClock.COARSE_TICK);
+        Thread.sleep(5 * TokenClock.COARSE_TICK);
+        yes(clock.now() > start);
+    }
+
+    @Test
+    public void testInterruptDoesNotFreeze() throws Exception {
+        TokenClock clock = TokenClock.get();
+        clock.now();
+        Thread ticker = null;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("token-clock".equals(thread.getName())) {
+                ticker = thread;
+            }
+        }
+        notNull(ticker);
+        for (int i = 0; i < 10; ++i) {
+            ticker.interrupt();
+        }
+        long start = clock.now();
+        Thread.sleep(5 * TokenClock.COARSE_TICK);
+        yes(clock.now() > start);
+        yes(ticker.isAlive());
+    }
+
+    @Test
+    public void testFixedClock() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        // the due is stored in whole seconds
+        long due = (System.currentTimeMillis() / 1000 + 60) * 1000;
+        Token token = codec.parse(codec.generate0(due, "alice"));
+
+        TokenClock.set(TokenClock.fixed(due - 1));
+        eq(due - 1, TokenClock.get().now());
+        yes(token.isValid());
+        eq(TokenResult.Reason.OK, codec.validate(codec.generate0(due, "alice")).reason());
+
+        TokenClock.set(TokenClock.fixed(due));
+        no(token.isValid());
+        yes(token.expired());
+        eq(TokenResult.Reason.EXPIRED, codec.validate(codec.generate0(due, "alice")).reason());
+
+        TokenClock.set(null);
+        yes(token.isValid());
+    }
+
+    @Test
+    public void testSystemClock() {
+        TokenClock.set(TokenClock.SYSTEM);
+        eq(TokenClock.SYSTEM, TokenClock.get());
+        long before = System.currentTimeMillis();
+        long now = TokenClock.get().now();
+        yes(now >= before && now <= System.currentTimeMillis());
+    }
+
+}
@@ -0,0 +1,210 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class TokenCodecTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+    private static final byte[] SECRET2 = "0123456789abcdefFEDCBA9876543210".getBytes();
+
+    @Test
+    public void testEncryptedTextRoundTrip() {
+        TokenCodec codec = new TokenCodec(SECRET);
+        verifyRoundTrip(codec);
+        verifyTamperedToken(codec);
+    }
+
+    @Test
+    public void testEncryptedBinaryRoundTrip() {
+        TokenCodec codec = TokenCodec.builder(SECRET).format(TokenCodec.Format.BINARY).build();
+        verifyRoundTrip(codec);
+        verifyTamperedToken(codec);
+        // binary format allows `|` in payload
+        eq(Arrays.asList("a|b", ""), codec.parse(codec.generate("alice", "a|b", "")).payload());
+    }
+
+    @Test
+    public void testAuthenticatedRoundTrip() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.AUTHENTICATED).build();
+        verifyRoundTrip(codec);
+        verifyTamperedToken(codec);
+    }
+
+    @Test
+    public void testSignedRoundTrip() {
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED).build();
+        verifyRoundTrip(codec);
+        verifyTamperedToken(codec);
+    }
+
+    @Test
+    public void testLegacyCompatibility() {
+        TokenCodec codec = new TokenCodec(SECRET);
+        String legacy = Token.generateToken(SECRET, Token.Life.ONE_DAY, "alice", "x", "y");
+        Token token = codec.parse(legacy);
+        yes(token.isValid());
+        eq("alice", token.id());
+        eq(Arrays.asList("x", "y"), token.payload());
+        yes(codec.isValid("alice", legacy));
+
+        token = Token.parseToken(SECRET, codec.generate("bob", "z"));
+        eq("bob", token.id());
+        eq(Arrays.asList("z"), token.payload());
+    }
+
+    @Test
+    public void testLegacyTokenRejectedByAuthenticatedMode() {
+        String legacy = Token.generateToken(SECRET, Token.Life.ONE_DAY, "alice");
+        TokenCodec codec = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.AUTHENTICATED).build();
+        no(codec.parse(legacy).isValid());
+        no(codec.isValid("alice", legacy));
+    }
+
+    @Test
+    public void testKeyRotation() {
+        TokenKeyRing ring1 = TokenKeyRing.of(1, SECRET);
+        TokenKeyRing ring2 = ring1.add(2, SECRET2).primary(2);
+        for (TokenCodec.Mode mode : TokenCodec.Mode.values()) {
+            TokenCodec codec1 = TokenCodec.builder(ring1).mode(mode).build();
+            TokenCodec codec2 = TokenCodec.builder(ring2).mode(mode).build();
+            String t1 = codec1.generate("bob", "x");
+            String t2 = codec2.generate("bob", "y");
+            yes(codec2.isValid("bob", t1), "%s: token of retired key", mode);
+            eq("x", codec2.parse(t1).firstPayload());
+            yes(codec2.isValid("bob", t2), "%s: token of primary key", mode);
+            no(codec1.isValid("bob", t2), "%s: token of unknown key", mode);
+            no(codec1.parse(t2).isValid(), "%s: token of unknown key", mode);
+
+            TokenCodec codec3 = TokenCodec.builder(ring2.remove(1)).mode(mode).build();
+            no(codec3.isValid("bob", t1), "%s: token of removed key", mode);
+            no(codec3.parse(t1).isValid(), "%s: token of removed key", mode);
+            yes(codec3.isValid("bob", t2), "%s: token of primary key", mode);
+        }
+    }
+
+    @Test
+    public void testExpiredToken() {
+        for (TokenCodec.Mode mode : TokenCodec.Mode.values()) {
+            TokenCodec codec = TokenCodec.builder(SECRET).mode(mode).build();
+            // well in the past: due seconds round up and the clock is coarse
+            String token = codec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, "alice");
+            no(codec.isValid("alice", token), "%s", mode);
+            eq(TokenResult.Reason.EXPIRED, codec.validate(token).reason(), "%s", mode);
+        }
+    }
+
+    @Test
+    public void testRevokedToken() {
+        for (TokenCodec.Mode mode : new TokenCodec.Mode[]{TokenCodec.Mode.AUTHENTICATED, TokenCodec.Mode.SIGNED}) {
+            TokenCodec codec = TokenCodec.builder(SECRET).mode(mode)
+                    .revocationStore(new InMemoryRevocationStore()).build();
+            String token = codec.generate("alice");
+            yes(codec.isValid("alice", token));
+            codec.revoke("alice");
+            no(codec.isValid("alice", token), "%s: isValid after revoke", mode);
+            Token parsed = codec.parse(token);
+            yes(parsed.revoked(), "%s: parse after revoke", mode);
+            no(parsed.isValid());
+            eq(TokenResult.Reason.REVOKED, codec.validate(token).reason());
+            yes(codec.isValid("alice", codec.generate("alice")), "%s: token after revoke", mode);
+        }
+    }
+
+    @Test
+    public void testTokenGeneratedAfterRemoteRevoke() {
+        RevocationStore store = new InMemoryRevocationStore();
+        TokenCodec x = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .revocationStore(store).revocationCacheTtl(60 * 1000).build();
+        TokenCodec y = TokenCodec.builder(SECRET).mode(TokenCodec.Mode.SIGNED)
+                .revocationStore(store).revocationCacheTtl(60 * 1000).build();
+        // y caches the generation before x revokes
+        yes(y.isValid("alice", y.generate("alice")));
+        x.revoke("alice");
+        String token = y.generate("alice");
+        yes(x.isValid("alice", token));
+        yes(y.isValid("alice", token));
+        yes(y.parse(token).isValid());
+    }
+
+    private static void verifyRoundTrip(TokenCodec codec) {
+        String token = codec.generate("alice", "a", "", "c");
+        Token parsed = codec.parse(token);
+        yes(parsed.isValid());
+        eq("alice", parsed.id());
+        eq(Arrays.asList("a", "", "c"), parsed.payload());
+        yes(codec.isValid("alice", token));
+        no(codec.isValid("bob", token));
+        yes(codec.validate(token).isOk());
+    }
+
+    /*
+     * Modify each character of the token except the last one, which
+     * might only carry padding bits of the encoding
+     */
+    private static void verifyTamperedToken(TokenCodec codec) {
+        String token = codec.generate("alice", "x");
+        Token origin = codec.parse(token);
+        char[] chars = token.toCharArray();
+        for (int i = 0; i < chars.length - 1; ++i) {
+            char c = chars[i];
+            chars[i] = c == '0' ? '1' : '0';
+            String tampered = new String(chars);
+            chars[i] = c;
+            Token parsed = codec.parse(tampered);
+            if (TokenCodec.Mode.ENCRYPTED == codec.mode()) {
+                // encrypted tokens are not authenticated, tampering
+                // only guarantees a different token
+                if (parsed.isValid()) {
+                    ne(origin, parsed, "tampered at %s: %s", i, tampered);
+                }
+            } else {
+                no(parsed.isValid(), "tampered at %s: %s", i, tampered);
+                no(codec.isValid("alice", tampered), "tampered at %s: %s", i, tampered);
+                no(codec.validate(tampered).isOk(), "tampered at %s: %s", i, tampered);
+            }
+        }
+    }
+
+    private static class InMemoryRevocationStore implements RevocationStore {
+        private final Map<String, Long> generations = new HashMap<String, Long>();
+
+        @Override
+        public synchronized long generation(String id) {
+            Long generation = generations.get(id);
+            return null == generation ? 0 : generation;
+        }
+
+        @Override
+        public synchronized long revoke(String id) {
+            long generation = generation(id) + 1;
+            generations.put(id, generation);
+            return generation;
+        }
+    }
+
+}
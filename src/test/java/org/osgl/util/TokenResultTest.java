@@ -0,0 +1,101 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+public class TokenResultTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    @Test
+    public void testParsePlainTextBadDue() {
+        // the legacy behaviour: a bad due makes an expired token
+        Token token = Token.parsePlainText("alice|abc|x");
+        yes(token.expired());
+        eq(TokenResult.Reason.MALFORMED, Token.plainTextResult("alice|abc|x").reason());
+        no(Token.isPlainTextValid("alice", "alice|abc|x".getBytes(Charsets.UTF_8)));
+        long past = System.currentTimeMillis() - 60 * 60 * 1000;
+        eq(TokenResult.Reason.EXPIRED, Token.plainTextResult("alice|" + past).reason());
+        no(Token.isPlainTextValid("alice", ("alice|" + past).getBytes(Charsets.UTF_8)));
+    }
+
+    @Test
+    public void testStaticReasons() {
+        String valid = Token.generateToken(SECRET, Token.Life.ONE_DAY, "result-alice", "x");
+        TokenResult r = Token.validateToken(SECRET, valid);
+        eq(TokenResult.Reason.OK, r.reason());
+        eq("result-alice", r.token().id());
+
+        long past = System.currentTimeMillis() - 60 * 60 * 1000;
+        String expired = Crypto.encryptAES(Token.plainText("result-alice", past), SECRET);
+        r = Token.validateToken(SECRET, expired);
+        eq(TokenResult.Reason.EXPIRED, r.reason());
+        no(r.isOk());
+
+        String badDue = Crypto.encryptAES("result-alice|abc", SECRET);
+        eq(TokenResult.Reason.MALFORMED, Token.validateToken(SECRET, badDue).reason());
+
+        String forged = Token.generateToken("fedcba9876543210".getBytes(), Token.Life.ONE_DAY, "result-alice");
+        r = Token.validateToken(SECRET, forged);
+        eq(TokenResult.Reason.FORGED, r.reason());
+        isNull(r.token());
+
+        eq(TokenResult.Reason.MALFORMED, Token.validateToken(SECRET, "not a token").reason());
+        eq(TokenResult.Reason.MALFORMED, Token.validateToken(SECRET, null).reason());
+
+        String consumed = Token.generateToken(SECRET, Token.Life.ONE_DAY, "result-bob");
+        Token.parseToken(SECRET, consumed).consume();
+        eq(TokenResult.Reason.CONSUMED, Token.validateToken(SECRET, consumed).reason());
+    }
+
+    @Test
+    public void testCodecReasons() {
+        for (TokenCodec.Mode mode : TokenCodec.Mode.values()) {
+            TokenCodec codec = TokenCodec.builder(SECRET).mode(mode)
+                    .consumedTokenStore(new InMemoryConsumedTokenStore()).build();
+            TokenCodec other = TokenCodec.builder("fedcba9876543210".getBytes()).mode(mode).build();
+            String valid = codec.generate("alice");
+            eq(TokenResult.Reason.OK, codec.validate(valid).reason(), "%s", mode);
+            String expired = codec.generate0(System.currentTimeMillis() - 60 * 60 * 1000, "alice");
+            eq(TokenResult.Reason.EXPIRED, codec.validate(expired).reason(), "%s", mode);
+            eq(TokenResult.Reason.FORGED, codec.validate(other.generate("alice")).reason(), "%s", mode);
+            eq(TokenResult.Reason.MALFORMED, codec.validate("").reason(), "%s", mode);
+            codec.parse(valid).consume();
+            eq(TokenResult.Reason.CONSUMED, codec.validate(valid).reason(), "%s", mode);
+        }
+    }
+
+    @Test
+    public void testPermanent() {
+        yes(TokenResult.FORGED.isPermanent());
+        yes(TokenResult.MALFORMED.isPermanent());
+        eq("MALFORMED", TokenResult.MALFORMED.toString());
+        Token token = Token.parsePlainText("alice|" + (System.currentTimeMillis() + 60 * 1000));
+        TokenResult ok = TokenResult.of(token);
+        yes(ok.isOk());
+        no(ok.isPermanent());
+        no(TokenResult.of(TokenResult.Reason.EXPIRED, token).isPermanent());
+        no(TokenResult.of(TokenResult.Reason.CONSUMED, token).isPermanent());
+    }
+
+}
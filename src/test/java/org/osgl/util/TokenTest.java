@@ -0,0 +1,173 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.After;
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.Arrays;
+import java.util.List;
+
+public class TokenTest extends TestBase {
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+
+    @After
+    public void resetCryptoService() {
+        Crypto.setCryptoService(null);
+    }
+
+    @Test
+    public void testLegacyRoundTrip() {
+        String token = Token.generateToken(SECRET, Token.Life.ONE_DAY, "alice", "x", "y");
+        Token parsed = Token.parseToken(SECRET, token);
+        yes(parsed.isValid());
+        eq("alice", parsed.id());
+        eq(Arrays.asList("x", "y"), parsed.payload());
+        yes(Token.isTokenValid(SECRET, "alice", token));
+        no(Token.isTokenValid(SECRET, "bob", token));
+        yes(Token.validateToken(SECRET, token).isOk());
+    }
+
+    @Test
+    public void testLegacyRejection() {
+        String forged = "00112233445566778899aabbccddeeff00112233445566778899aabbccddeeff";
+        eq(TokenResult.Reason.FORGED, Token.validateToken(SECRET, forged).reason());
+        eq(TokenResult.Reason.MALFORMED, Token.validateToken(SECRET, "abcd").reason());
+        eq(TokenResult.Reason.MALFORMED, Token.validateToken(SECRET, "").reason());
+        yes(Token.parseToken(SECRET, forged).isEmpty());
+        no(Token.isTokenValid(SECRET, "alice", forged));
+    }
+
+    @Test
+    public void testCustomCryptoService() {
+        Crypto.setCryptoService(new ReverseCryptoService());
+        String token = Token.generateToken(SECRET, Token.Life.ONE_DAY, "alice", "x");
+        // not hex encoded AES blocks, thus it must not be rejected by shape
+        yes(token.startsWith("~"));
+        Token parsed = Token.parseToken(SECRET, token);
+        yes(parsed.isValid());
+        eq("alice", parsed.id());
+        eq(Arrays.asList("x"), parsed.payload());
+        yes(Token.isTokenValid(SECRET, "alice", token));
+        yes(Token.validateToken(SECRET, token).isOk());
+        // repeated calls are not answered by the rejected token cache
+        yes(Token.isTokenValid(SECRET, "alice", token));
+
+        no(Token.isTokenValid(SECRET, "alice", "garbage"));
+        eq(TokenResult.Reason.FORGED, Token.validateToken(SECRET, "garbage").reason());
+    }
+
+    @Test
+    public void testParsePlainText() {
+        long due = System.currentTimeMillis() + 60 * 60 * 1000;
+        String[] texts = {
+                "alice|" + due,
+                "alice|" + due + "|x",
+                "alice|" + due + "|x||y",
+                "alice|" + due + "|x||",
+                "alice|" + due + "||",
+                "alice|" + due + "|\u00e9t\u00e9|\u4e2d"
+        };
+        for (String text : texts) {
+            Token token = Token.parsePlainText(text);
+            // same as splitting by `|`, which drops trailing empty strings
+            List<String> parts = Arrays.asList(text.split("\\|"));
+            eq(parts.get(0), token.id(), text);
+            eq(due, token.due(), text);
+            eq(parts.subList(2, parts.size()), token.payload(), text);
+            yes(Token.isPlainTextValid("alice", text.getBytes(Charsets.UTF_8)), text);
+            no(Token.isPlainTextValid("bob", text.getBytes(Charsets.UTF_8)), text);
+        }
+        eq(Arrays.asList("a", "", "b"), Token.parsePlainText(Token.plainText("u", due, "a", "", "b")).payload());
+        yes(Token.parsePlainText("alice").isEmpty());
+        yes(Token.parsePlainText("alice|0|x").isValid());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        eq(5655503925539700317L, ObjectStreamClass.lookup(Token.class).getSerialVersionUID());
+        TokenCodec codec = TokenCodec.builder(SECRET).format(TokenCodec.Format.BINARY).build();
+        Token token = codec.parse(codec.generate("alice", "x"));
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(buf);
+        out.writeObject(token);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()));
+        eq(token, in.readObject());
+    }
+
+    /*
+     * A service that prefixes and reverses the text, which is
+     * obviously not the built-in AES scheme
+     */
+    private static class ReverseCryptoService implements CryptoService {
+        @Override
+        public String encrypt(String value, String secret) {
+            return encrypt(value, (byte[]) null);
+        }
+
+        @Override
+        public String encrypt(String value, byte[] secret) {
+            return "~" + new StringBuilder(value).reverse();
+        }
+
+        @Override
+        public String encrypt(String value, String secret, String iv) {
+            return encrypt(value, (byte[]) null);
+        }
+
+        @Override
+        public String encrypt(String value, byte[] secret, byte[] iv) {
+            return encrypt(value, (byte[]) null);
+        }
+
+        @Override
+        public String decrypt(String value, String secret) {
+            return decrypt(value, (byte[]) null);
+        }
+
+        @Override
+        public String decrypt(String value, String secret, String iv) {
+            return decrypt(value, (byte[]) null);
+        }
+
+        @Override
+        public String decrypt(String value, byte[] secret) {
+            if (!value.startsWith("~")) {
+                throw new IllegalArgumentException("not encrypted");
+            }
+            return new StringBuilder(value.substring(1)).reverse().toString();
+        }
+
+        @Override
+        public String decrypt(String value, byte[] secret, byte[] iv) {
+            return decrypt(value, (byte[]) null);
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.osgl.cache.CacheService;
+import org.osgl.cache.CacheServiceProvider;
+import osgl.ut.TestBase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Run token operations on virtual threads with `jdk.tracePinnedThreads`
+ * turned on and verify no carrier thread get pinned, i.e. no virtual
+ * thread blocks while holding a monitor in the token code.
+ *
+ * The backing cache and store sleep on every call so that any blocking
+ * call made inside a `synchronized` block shows up in the trace. The
+ * test is skipped on a JVM without virtual threads.
+ */
+public class VirtualThreadPinningTest extends TestBase {
+
+    static {
+        // must be set before the first virtual thread is created
+        System.setProperty("jdk.tracePinnedThreads", "short");
+    }
+
+    private static final byte[] SECRET = "0123456789abcdef".getBytes();
+    private static final int TASKS = 64;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testNoPinning() throws Exception {
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        Assume.assumeNotNull(executor);
+
+        CacheService cache = slow(CacheServiceProvider.Impl.Simple.get("pinning-test"));
+        final TokenCodec authenticated = TokenCodec.builder(SECRET)
+                .mode(TokenCodec.Mode.AUTHENTICATED)
+                .consumedTokenStore(new CacheConsumedTokenStore(cache))
+                .revocationStore(new CacheRevocationStore(cache))
+                .parsedTokenCache(1024, 60 * 1000)
+                .build();
+        final WriteBehindConsumedTokenStore writeBehind = new WriteBehindConsumedTokenStore(
+                new SlowConsumedTokenStore(), 16, 4, 10);
+        final TokenCodec signed = TokenCodec.builder(SECRET)
+                .mode(TokenCodec.Mode.SIGNED)
+                .consumedTokenStore(writeBehind)
+                .build();
+        final InMemoryConsumedTokenStore inMemory = new InMemoryConsumedTokenStore();
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream trace = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(trace, true));
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < TASKS; ++i) {
+                final String id = "u" + (i % 8);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int round = 0; round < ROUNDS; ++round) {
+                            String token = authenticated.generate(id, "x");
+                            authenticated.isValid(id, token);
+                            authenticated.parse(token).tryConsume();
+                            authenticated.parse("T" + token);
+                            if (round % 10 == 0) {
+                                authenticated.revoke(id);
+                            }
+                            token = signed.generate(id);
+                            signed.parse(token).tryConsume();
+                            inMemory.tryConsume(signed.parse(token));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+            yes(executor.awaitTermination(1, TimeUnit.MINUTES));
+        } finally {
+            System.setOut(out);
+            writeBehind.close();
+        }
+        String s = trace.toString();
+        no(s.contains("<== monitors"), "carrier thread pinned:\n%s", s);
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+        return (ExecutorService) method.invoke(null);
+    }
+
+    private static void pause() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Returns a cache that sleeps before each call
+     */
+    private static CacheService slow(final CacheService cache) {
+        return (CacheService) Proxy.newProxyInstance(CacheService.class.getClassLoader(),
+                new Class[]{CacheService.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        pause();
+                        try {
+                            return method.invoke(cache, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static class SlowConsumedTokenStore extends InMemoryConsumedTokenStore {
+        @Override
+        public void consume(Token token) {
+            pause();
+            super.consume(token);
+        }
+
+        @Override
+        public void consume(List<Token> tokens) {
+            pause();
+            super.consume(tokens);
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.osgl.util;
+
+/*-
+ * #%L
+ * OSGL Tool Extension
+ * %%
+ * Copyright (C) 2017 OSGL (Open Source General Library)
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.junit.After;
+import org.junit.Test;
+import osgl.ut.TestBase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class WriteBehindConsumedTokenStoreTest extends TestBase {
+
+    private final TokenCodec codec = TokenCodec.builder("0123456789abcdef".getBytes())
+            .mode(TokenCodec.Mode.SIGNED).build();
+
+    private final CountingStore backing = new CountingStore();
+    private final WriteBehindConsumedTokenStore store = new WriteBehindConsumedTokenStore(backing, 1024, 16, 10);
+
+    @After
+    public void close() {
+        store.close();
+    }
+
+    @Test
+    public void testTryConsume() {
+        Token token = codec.parse(codec.generate("alice"));
+        yes(store.tryConsume(token));
+        eq(1, backing.lookups.get());
+        no(store.tryConsume(token));
+        yes(store.consumed(token));
+        // answered by the local set
+        eq(1, backing.lookups.get());
+    }
+
+    @Test
+    public void testTokenConsumedElsewhere() {
+        Token token = codec.parse(codec.generate("alice"));
+        backing.store.consume(token);
+        no(store.tryConsume(token));
+        no(store.tryConsume(token));
+        eq(1, backing.lookups.get());
+        eq(0, backing.writes.get());
+    }
+
+    @Test
+    public void testClose() {
+        Token[] tokens = new Token[100];
+        for (int i = 0; i < tokens.length; ++i) {
+            tokens[i] = codec.parse(codec.generate("u" + i));
+            if (i % 2 == 0) {
+                store.consume(tokens[i]);
+            } else {
+                yes(store.tryConsume(tokens[i]));
+            }
+        }
+        store.close();
+        eq(0, store.pending());
+        eq(tokens.length, backing.writes.get());
+        for (Token token : tokens) {
+            yes(backing.store.consumed(token));
+        }
+        yes(backing.batches.get() > 0);
+
+        // written synchronously after close
+        Token token = codec.parse(codec.generate("late"));
+        store.consume(token);
+        yes(backing.store.consumed(token));
+    }
+
+    @Test
+    public void testBulkConsume() {
+        List<Token> tokens = Arrays.asList(codec.parse(codec.generate("a")), codec.parse(codec.generate("b")));
+        store.consume(tokens);
+        boolean[] consumed = store.consumed(tokens);
+        yes(consumed[0] && consumed[1]);
+        store.close();
+        eq(2, backing.writes.get());
+    }
+
+    private static class CountingStore implements BulkConsumedTokenStore {
+        final InMemoryConsumedTokenStore store = new InMemoryConsumedTokenStore();
+        final AtomicInteger lookups = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+        final AtomicInteger batches = new AtomicInteger();
+
+        @Override
+        public boolean consumed(Token token) {
+            lookups.incrementAndGet();
+            return store.consumed(token);
+        }
+
+        @Override
+        public boolean[] consumed(List<Token> tokens) {
+            lookups.addAndGet(tokens.size());
+            return store.consumed(tokens);
+        }
+
+        @Override
+        public void consume(Token token) {
+            writes.incrementAndGet();
+            store.consume(token);
+        }
+
+        @Override
+        public void consume(List<Token> tokens) {
+            batches.incrementAndGet();
+            writes.addAndGet(tokens.size());
+            store.consume(tokens);
+        }
+
+        @Override
+        public boolean tryConsume(Token token) {
+            writes.incrementAndGet();
+            return store.tryConsume(token);
+        }
+    }
+
+}